@@ -0,0 +1,172 @@
+package dk.kosmisk.postgresql.maven.plugin;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Throughput and latency of a pgbench run
+ * <p>
+ * Throughput is taken from the pgbench summary, latencies from the per
+ * transaction log files (pgbench -l)
+ *
+ * @author Source (source (at) kosmisk.dk)
+ */
+class BenchmarkResult {
+
+    private static final Pattern TPS = Pattern.compile("^tps = ([0-9.]+) \\((?:without initial connection time|excluding connections establishing)\\)", Pattern.MULTILINE);
+    private static final Pattern TRANSACTIONS = Pattern.compile("^number of transactions actually processed: (\\d+)", Pattern.MULTILINE);
+    private static final Pattern FAILED = Pattern.compile("^number of failed transactions: (\\d+)", Pattern.MULTILINE);
+
+    private static final Pattern LOG_FILE = Pattern.compile("pgbench\\.\\d+(\\.\\d+)?");
+
+    private final double tps;
+    private final long transactions;
+    private final long failed;
+    private final long[] latencies; // microseconds, sorted
+
+    /**
+     * Construct a result
+     *
+     * @param tps          transactions per second
+     * @param transactions number of transactions
+     * @param failed       number of failed transactions
+     * @param latencies    latencies in microseconds, is sorted in place
+     */
+    BenchmarkResult(double tps, long transactions, long failed, long[] latencies) {
+        this.tps = tps;
+        this.transactions = transactions;
+        this.failed = failed;
+        this.latencies = latencies;
+        Arrays.sort(this.latencies);
+    }
+
+    /**
+     * Find the transaction log files pgbench has written (--log-prefix=pgbench)
+     *
+     * @param dir folder pgbench was run in
+     * @return pgbench.[pid] and pgbench.[pid].[thread] files
+     */
+    static List<File> logFiles(File dir) {
+        File[] files = dir.listFiles((d, file) -> LOG_FILE.matcher(file).matches());
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    /**
+     * Parse the output from pgbench
+     *
+     * @param summary  standard output of pgbench
+     * @param logFiles transaction log files
+     * @return result
+     * @throws IOException if a log file cannot be read
+     */
+    static BenchmarkResult parse(String summary, List<File> logFiles) throws IOException {
+        Matcher tpsMatcher = TPS.matcher(summary);
+        if (!tpsMatcher.find()) {
+            throw new IOException("Cannot find tps in pgbench output");
+        }
+        double tps = Double.parseDouble(tpsMatcher.group(1));
+        Matcher transactionsMatcher = TRANSACTIONS.matcher(summary);
+        long transactions = transactionsMatcher.find() ? Long.parseLong(transactionsMatcher.group(1)) : 0;
+        Matcher failedMatcher = FAILED.matcher(summary);
+        long failed = failedMatcher.find() ? Long.parseLong(failedMatcher.group(1)) : 0;
+
+        long[] latencies = new long[1024];
+        int count = 0;
+        for (File logFile : logFiles) {
+            try (BufferedReader reader = Files.newBufferedReader(logFile.toPath(), StandardCharsets.UTF_8)) {
+                for (String line = reader.readLine() ; line != null ; line = reader.readLine()) {
+                    // client_id transaction_no time script_no time_epoch time_us [schedule_lag]
+                    String[] fields = line.trim().split("\\s+");
+                    if (fields.length >= 3 && fields[2].matches("\\d+")) {
+                        if (count == latencies.length) {
+                            latencies = Arrays.copyOf(latencies, count * 2);
+                        }
+                        latencies[count++] = Long.parseLong(fields[2]);
+                    }
+                }
+            }
+        }
+        return new BenchmarkResult(tps, transactions, failed, Arrays.copyOf(latencies, count));
+    }
+
+    double getTps() {
+        return tps;
+    }
+
+    long getTransactions() {
+        return transactions;
+    }
+
+    long getFailed() {
+        return failed;
+    }
+
+    /**
+     * Average latency
+     *
+     * @return milliseconds or NaN if no transactions were logged
+     */
+    double averageLatency() {
+        if (latencies.length == 0) {
+            return Double.NaN;
+        }
+        return Arrays.stream(latencies).average().getAsDouble() / 1000.0;
+    }
+
+    /**
+     * Latency percentile (nearest rank)
+     *
+     * @param percentile 0-100
+     * @return milliseconds or NaN if no transactions were logged
+     */
+    double latencyPercentile(double percentile) {
+        if (latencies.length == 0) {
+            return Double.NaN;
+        }
+        int rank = (int) Math.ceil(percentile / 100.0 * latencies.length);
+        return latencies[Math.min(Math.max(rank, 1), latencies.length) - 1] / 1000.0;
+    }
+
+    /**
+     * Render as json
+     *
+     * @param name     database name
+     * @param workload builtin name or script names
+     * @param clients  number of clients
+     * @param threads  number of threads
+     * @param duration seconds run
+     * @return json document
+     */
+    String toJson(String name, String workload, int clients, int threads, int duration) {
+        return "{\n" +
+               "  \"database\": " + Json.string(name) + ",\n" +
+               "  \"workload\": " + Json.string(workload) + ",\n" +
+               "  \"clients\": " + clients + ",\n" +
+               "  \"threads\": " + threads + ",\n" +
+               "  \"duration\": " + duration + ",\n" +
+               "  \"transactions\": " + transactions + ",\n" +
+               "  \"failed\": " + failed + ",\n" +
+               "  \"tps\": " + Json.number(tps) + ",\n" +
+               "  \"latency_ms\": {\n" +
+               "    \"average\": " + Json.number(averageLatency()) + ",\n" +
+               "    \"p50\": " + Json.number(latencyPercentile(50)) + ",\n" +
+               "    \"p90\": " + Json.number(latencyPercentile(90)) + ",\n" +
+               "    \"p95\": " + Json.number(latencyPercentile(95)) + ",\n" +
+               "    \"p99\": " + Json.number(latencyPercentile(99)) + ",\n" +
+               "    \"max\": " + Json.number(latencyPercentile(100)) + "\n" +
+               "  }\n" +
+               "}\n";
+    }
+}
@@ -0,0 +1,59 @@
+package dk.kosmisk.postgresql.maven.plugin;
+
+import java.util.Locale;
+
+/**
+ * Minimal json rendering for reports
+ *
+ * @author Source (source (at) kosmisk.dk)
+ */
+final class Json {
+
+    private Json() {
+    }
+
+    /**
+     * Render a number with 3 decimals
+     *
+     * @param d number
+     * @return json number or null if not finite
+     */
+    static String number(double d) {
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+            return "null";
+        }
+        return String.format(Locale.ROOT, "%.3f", d);
+    }
+
+    /**
+     * Render a string
+     *
+     * @param s string
+     * @return quoted and escaped json string
+     */
+    static String string(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            switch (c) {
+                case '"':
+                case '\\':
+                    sb.append('\\').append(c);
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                    break;
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -1,6 +1,12 @@
 package dk.kosmisk.postgresql.maven.plugin;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
@@ -15,10 +21,13 @@ import org.apache.maven.project.MavenProject;
  *
  * @author Source (source (at) kosmisk.dk)
  */
-public abstract class PostgresqlAbstractMojo extends AbstractMojo {
+public abstract class PostgresqlAbstractMojo extends AbstractMojo implements Cloneable {
 
     protected static final ConcurrentHashMap<String, ProcessBuilder> DATABASES_STOP_COMMANDS = new ConcurrentHashMap<>();
     protected static final ConcurrentSkipListSet<String> ARTIFACT_UNPACKED = new ConcurrentSkipListSet<>();
+    protected static final ConcurrentHashMap<String, WarmInstance> WARM_INSTANCES = new ConcurrentHashMap<>();
+    protected static final ConcurrentHashMap<String, ResourceSampler> RESOURCE_SAMPLERS = new ConcurrentHashMap<>();
+    protected static final ConcurrentHashMap<String, TrafficProxy> TRAFFIC_PROXIES = new ConcurrentHashMap<>();
 
     /**
      * Name of database to be created during startup
@@ -45,6 +54,71 @@ public abstract class PostgresqlAbstractMojo extends AbstractMojo {
     @Parameter(defaultValue = "${project.build.directory}/postgresql", property = "postgresql.folder")
     protected File folder;
 
+    /**
+     * Where to place the database files. Default is name of folder + "/db/" +
+     * name
+     */
+    @Parameter
+    protected File databaseFolder;
+
+    /**
+     * User to own database
+     */
+    @Parameter(defaultValue = "${user.name}")
+    protected String user;
+
+    /**
+     * Password for database owner
+     */
+    @Parameter(defaultValue = "${user.name}")
+    protected String password;
+
+    /**
+     * Make the PostgreSQL server instance listen on a unix domain socket too
+     */
+    @Parameter(defaultValue = "false")
+    protected boolean unixSocket;
+
+    /**
+     * Folder to contain the unix domain socket (defaults to
+     * ${folder}/socket/${name}). Keep it short, socket paths are limited to
+     * around 100 characters
+     */
+    @Parameter
+    protected File unixSocketFolder;
+
+    /**
+     * Leave the PostgreSQL server instance running after shutdown, for reuse
+     * by the next build in the same jvm (maven daemon). The database is reset
+     * to its state after the scripts were loaded, if the binary, scripts and
+     * settings are unchanged
+     */
+    @Parameter(defaultValue = "false", property = "postgresql.keepWarm")
+    protected boolean keepWarm;
+
+    /**
+     * Run a tcp proxy in the maven jvm, that records traffic statistics, in
+     * front of the PostgreSQL server instance. The port property then refers
+     * to the proxy, and the server port is published in
+     * postgresql.${name}.server.port
+     */
+    @Parameter(defaultValue = "false", property = "postgresql.proxy")
+    protected boolean proxy;
+
+    /**
+     * List of postgresql-binary versions to start concurrently, each on its own
+     * port (published in postgresql.${name}.${version}.port). Overrides
+     * &lt;version&gt; and &lt;port&gt;
+     */
+    @Parameter
+    protected List<String> versions;
+
+    /**
+     * The version this object handles, when it is a copy for one version of
+     * &lt;versions&gt;
+     */
+    protected String matrixVersion;
+
     @Parameter(defaultValue = "${project}", readonly = true)
     private MavenProject project;
 
@@ -56,11 +130,88 @@ public abstract class PostgresqlAbstractMojo extends AbstractMojo {
 
     protected String getPropertyName() {
         if (portProperty == null) {
-            portProperty = "postgresql." + name + ".port";
+            portProperty = propertyPrefix() + ".port";
         }
         return portProperty;
     }
 
+    protected String getServerPortPropertyName() {
+        return propertyPrefix() + ".server.port";
+    }
+
+    protected String getSocketFolderPropertyName() {
+        return propertyPrefix() + ".socket.folder";
+    }
+
+    protected String getSocketUrlPropertyName() {
+        return propertyPrefix() + ".socket.url";
+    }
+
+    private String propertyPrefix() {
+        if (matrixVersion == null) {
+            return "postgresql." + name;
+        }
+        return "postgresql." + name + "." + matrixVersion;
+    }
+
+    /**
+     * Key of the instance in the static maps
+     *
+     * @return name, or name@version for a version of &lt;versions&gt;
+     */
+    protected String instanceKey() {
+        if (matrixVersion == null) {
+            return name;
+        }
+        return name + "@" + matrixVersion;
+    }
+
+    /**
+     * Name of the instance, for folder names
+     *
+     * @return name, or name-version for a version of &lt;versions&gt;
+     */
+    protected String instanceName() {
+        if (matrixVersion == null) {
+            return name;
+        }
+        return name + "-" + matrixVersion;
+    }
+
+    /**
+     * Has a list of versions been given
+     *
+     * @return if versions should be processed instead of this
+     */
+    protected boolean isMatrix() {
+        return versions != null && !versions.isEmpty();
+    }
+
+    /**
+     * Make a copy of this, that handles one version of &lt;versions&gt;
+     *
+     * @param <T>     type of this
+     * @param version the version to handle
+     * @return copy of this
+     */
+    @SuppressWarnings("unchecked")
+    protected <T extends PostgresqlAbstractMojo> T forMatrixVersion(String version) {
+        try {
+            T instance = (T) clone();
+            instance.matrixVersion = version;
+            instance.versions = null;
+            instance.port = null;
+            instance.portProperty = null;
+            instance.unixSocketFolder = unixSocketFolder == null ? null : new File(unixSocketFolder.getPath() + "-" + version);
+            instance.databaseFolder = databaseFolder == null ?
+                                      folder.toPath().resolve("db").resolve(instance.instanceName()).toFile() :
+                                      new File(databaseFolder.getPath() + "-" + version);
+            return instance;
+        } catch (CloneNotSupportedException ex) {
+            throw new IllegalStateException("Cannot copy mojo", ex);
+        }
+    }
+
     public MavenProject getProject() {
         return project;
     }
@@ -71,12 +222,147 @@ public abstract class PostgresqlAbstractMojo extends AbstractMojo {
         }
         String propertyPort = project.getProperties().getProperty(getPropertyName());
         if (propertyPort == null) {
-            throw new MojoExecutionException("Cannot find port for: " + name);
+            throw new MojoExecutionException("Cannot find port for: " + instanceKey());
         }
         port = Integer.parseInt(propertyPort);
         return port;
     }
 
+    /**
+     * Path of database folder
+     *
+     * @return Path object
+     * @throws MojoExecutionException if the path cannot be resolved
+     */
+    protected Path databasePath() throws MojoExecutionException {
+        if (databaseFolder == null) {
+            try {
+                databaseFolder = folder.toPath().resolve("db").resolve("name").toFile().getCanonicalFile();
+            } catch (IOException ex) {
+                throw new MojoExecutionException("Cannot locate path of databaseFolder", ex);
+            }
+        }
+        try {
+            return databaseFolder.getCanonicalFile().toPath();
+        } catch (IOException ex) {
+            throw new MojoExecutionException("Cannot locate path of databaseFolder", ex);
+        }
+    }
+
+    /**
+     * Is a path inside the project build directory (target), and thereby safe
+     * to remove
+     *
+     * @param path absolute path
+     * @return if path or one of its parents is the target folder
+     * @throws IOException if canonical paths cannot be resolved
+     */
+    protected boolean isInTargetFolder(Path path) throws IOException {
+        String targetFolder = new File(project.getBuild().getDirectory()).getCanonicalPath();
+        Path traverse = path;
+        Path root = traverse.getRoot();
+        while (!root.equals(traverse)) {
+            if (traverse.toFile().getCanonicalPath().equals(targetFolder)) {
+                return true;
+            }
+            traverse = traverse.getParent();
+        }
+        return false;
+    }
+
+    /**
+     * Key of the instance in the warm instances map. The data folder is unique
+     * across projects and modules sharing a jvm
+     *
+     * @return canonical path of database folder
+     * @throws MojoExecutionException if the path cannot be resolved
+     */
+    protected String warmKey() throws MojoExecutionException {
+        return databasePath().toString();
+    }
+
+    /**
+     * Path of scripts folder
+     *
+     * @return Path object
+     */
+    protected Path scriptPath() {
+        if (matrixVersion == null) {
+            return folder.toPath().resolve("binary").toAbsolutePath();
+        }
+        return folder.toPath().resolve("binary-" + matrixVersion).toAbsolutePath();
+    }
+
+    /**
+     * Host for libpq based clients to connect to
+     *
+     * @return unix domain socket folder if enabled, otherwise localhost
+     */
+    protected String connectHost() {
+        return unixSocket ? socketPath().toString() : "localhost";
+    }
+
+    /**
+     * Path of unix domain socket folder
+     *
+     * @return Path object
+     */
+    protected Path socketPath() {
+        if (unixSocketFolder == null) {
+            unixSocketFolder = folder.toPath().resolve("socket").resolve(instanceName()).toAbsolutePath().toFile();
+        }
+        return unixSocketFolder.toPath().toAbsolutePath();
+    }
+
+    /**
+     * Construct a jdbc url, that connects through a unix domain socket using
+     * the junixsocket socket factory
+     *
+     * @param socketFolder folder containing the socket
+     * @param port         port number (part of the socket file name)
+     * @param database     database name
+     * @return jdbc url
+     */
+    static String socketJdbcUrl(Path socketFolder, int port, String database) {
+        try {
+            String socketFile = socketFolder.resolve(".s.PGSQL." + port).toString();
+            return "jdbc:postgresql://localhost:" + port + "/" + URLEncoder.encode(database, StandardCharsets.UTF_8.name()) +
+                   "?socketFactory=" + URLEncoder.encode("org.newsclub.net.unix.AFUNIXSocketFactory$FactoryArg", StandardCharsets.UTF_8.name()) +
+                   "&socketFactoryArg=" + URLEncoder.encode(socketFile, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException("Cannot url encode using UTF-8", ex);
+        }
+    }
+
+    /**
+     * Port the PostgreSQL server instance listens on
+     *
+     * @return the proxied port if &lt;proxy&gt; is enabled, otherwise the port
+     * @throws MojoExecutionException if the port is unknown
+     */
+    protected int resolveServerPort() throws MojoExecutionException {
+        if (!proxy) {
+            return resolvePort();
+        }
+        String propertyPort = project.getProperties().getProperty(getServerPortPropertyName());
+        if (propertyPort == null) {
+            throw new MojoExecutionException("Cannot find server port for: " + instanceKey());
+        }
+        return Integer.parseInt(propertyPort);
+    }
+
+    /**
+     * Port for libpq based clients to connect to, matching
+     * {@link #connectHost()}
+     *
+     * @return server port if using unix domain socket, otherwise the port
+     *         (possibly through the proxy)
+     * @throws MojoExecutionException if the port is unknown
+     */
+    protected int connectPort() throws MojoExecutionException {
+        return unixSocket ? resolveServerPort() : resolvePort();
+    }
+
     /**
      * Construct a windows/darwin/linux-i386/x64 classifier
      *
@@ -127,4 +413,16 @@ public abstract class PostgresqlAbstractMojo extends AbstractMojo {
         throw new IllegalStateException("Cannot determine architecture: " + system);
     }
 
+    /**
+     * Get the executable extension
+     *
+     * @return .exe for windows, empty string for everything else
+     */
+    protected static String executableExtension() {
+        if (".bat".equals(scriptExtension())) {
+            return ".exe";
+        }
+        return "";
+    }
+
 }
@@ -0,0 +1,244 @@
+package dk.kosmisk.postgresql.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Mojo for running pgbench against a started PostgreSQL instance
+ *
+ * @author Source (source (at) kosmisk.dk)
+ */
+@Mojo(threadSafe = true, name = "benchmark", defaultPhase = LifecyclePhase.INTEGRATION_TEST, requiresProject = false)
+public class PostgresqlBenchmarkMojo extends PostgresqlAbstractMojo {
+
+    /**
+     * Builtin pgbench workload (tpcb-like, simple-update or select-only).
+     * Ignored if &lt;benchmarkScripts&gt; are given
+     */
+    @Parameter(defaultValue = "tpcb-like")
+    protected String builtin;
+
+    /**
+     * Custom pgbench scripts, may be suffixed with @weight
+     */
+    @Parameter
+    protected List<String> benchmarkScripts;
+
+    /**
+     * Create the pgbench tables before running (pgbench -i). Defaults to true
+     * for builtin workloads and false for custom scripts
+     */
+    @Parameter
+    protected Boolean initialize;
+
+    /**
+     * Scale factor for initialization
+     */
+    @Parameter(defaultValue = "1")
+    protected int scale;
+
+    /**
+     * Number of concurrent clients
+     */
+    @Parameter(defaultValue = "1")
+    protected int clients;
+
+    /**
+     * Number of pgbench threads
+     */
+    @Parameter(defaultValue = "1")
+    protected int threads;
+
+    /**
+     * Seconds to run the benchmark
+     */
+    @Parameter(defaultValue = "10")
+    protected int duration;
+
+    /**
+     * Where to place pgbench logs and report.json (defaults to
+     * ${folder}/benchmark/${name}, or ${folder}/benchmark/${name}-${version}
+     * for each of &lt;versions&gt;)
+     */
+    @Parameter
+    protected File benchmarkFolder;
+
+    /**
+     * Fail the build if tps is below this
+     */
+    @Parameter
+    protected Double minTps;
+
+    /**
+     * Fail the build if average latency (ms) is above this
+     */
+    @Parameter
+    protected Double maxAverageLatency;
+
+    /**
+     * Fail the build if 95th percentile latency (ms) is above this
+     */
+    @Parameter
+    protected Double maxP95Latency;
+
+    /**
+     * Fail the build if 99th percentile latency (ms) is above this
+     */
+    @Parameter
+    protected Double maxP99Latency;
+
+    private Log log;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (skip()) {
+            return;
+        }
+
+        log = getLog();
+        List<String> violations = new ArrayList<>();
+        if (isMatrix()) {
+            for (String matrix : versions) {
+                PostgresqlBenchmarkMojo instance = forMatrixVersion(matrix);
+                if (benchmarkFolder != null) {
+                    instance.benchmarkFolder = new File(benchmarkFolder.getPath() + "-" + matrix);
+                }
+                instance.benchmarkInstance().stream()
+                        .map(violation -> matrix + ": " + violation)
+                        .forEach(violations::add);
+            }
+        } else {
+            violations.addAll(benchmarkInstance());
+        }
+        if (!violations.isEmpty()) {
+            throw new MojoFailureException("Benchmark of database: " + name + " failed: " + String.join(", ", violations));
+        }
+    }
+
+    /**
+     * Run pgbench against one instance, and write its report
+     *
+     * @return threshold violations
+     * @throws MojoExecutionException if pgbench cannot be run
+     */
+    private List<String> benchmarkInstance() throws MojoExecutionException {
+        BenchmarkResult result;
+        try {
+            Path benchmarkPath = benchmarkPath();
+            if (benchmarkPath.toFile().exists()) {
+                if (!isInTargetFolder(benchmarkPath)) {
+                    throw new MojoExecutionException("Security violation, will not remove benchmarkFolder " + benchmarkPath + " outside target folder");
+                }
+                FileUtils.deleteDirectory(benchmarkPath.toFile());
+            }
+            FileUtils.forceMkdir(benchmarkPath.toFile());
+
+            boolean custom = benchmarkScripts != null && !benchmarkScripts.isEmpty();
+            if (initialize == null ? !custom : initialize) {
+                log.info("Initializing pgbench tables in: " + instanceKey() + " (scale " + scale + ")");
+                runPgbench(Arrays.asList("-i", "-q", "-s", String.valueOf(scale)), benchmarkPath.resolve("initialize.out").toFile());
+            }
+
+            List<String> arguments = new ArrayList<>();
+            if (custom) {
+                arguments.add("-n");
+                for (String script : benchmarkScripts) {
+                    arguments.add("-f");
+                    arguments.add(new File(script).getAbsolutePath());
+                }
+            } else {
+                arguments.add("-b");
+                arguments.add(builtin);
+            }
+            arguments.addAll(Arrays.asList("-c", String.valueOf(clients),
+                                           "-j", String.valueOf(threads),
+                                           "-T", String.valueOf(duration),
+                                           "-l", "--log-prefix=pgbench"));
+            log.info("Benchmarking database: " + instanceKey() + " (" + workload() + ", " + clients + " clients, " + threads + " threads, " + duration + "s)");
+            File output = benchmarkPath.resolve("summary.out").toFile();
+            runPgbench(arguments, output);
+
+            result = BenchmarkResult.parse(FileUtils.readFileToString(output, StandardCharsets.UTF_8),
+                                           BenchmarkResult.logFiles(benchmarkPath.toFile()));
+            File report = benchmarkPath.resolve("report.json").toFile();
+            FileUtils.writeStringToFile(report, result.toJson(instanceKey(), workload(), clients, threads, duration), StandardCharsets.UTF_8);
+            log.info(String.format(Locale.ROOT, "- tps: %.1f, latency avg: %.3fms, p95: %.3fms, p99: %.3fms",
+                                   result.getTps(), result.averageLatency(), result.latencyPercentile(95), result.latencyPercentile(99)));
+            log.info("- report: " + report);
+        } catch (IOException | InterruptedException ex) {
+            throw new MojoExecutionException("Cannot benchmark PostgreSQL Database", ex);
+        }
+
+        List<String> violations = new ArrayList<>();
+        if (minTps != null && result.getTps() < minTps) {
+            violations.add("tps " + result.getTps() + " < " + minTps);
+        }
+        checkLatency(violations, "average latency", result.averageLatency(), maxAverageLatency);
+        checkLatency(violations, "p95 latency", result.latencyPercentile(95), maxP95Latency);
+        checkLatency(violations, "p99 latency", result.latencyPercentile(99), maxP99Latency);
+        return violations;
+    }
+
+    private static void checkLatency(List<String> violations, String what, double actual, Double max) {
+        if (max != null && !(actual <= max)) {
+            violations.add(what + " " + Json.number(actual) + "ms > " + max + "ms");
+        }
+    }
+
+    private String workload() {
+        if (benchmarkScripts != null && !benchmarkScripts.isEmpty()) {
+            return benchmarkScripts.stream()
+                    .map(script -> new File(script).getName())
+                    .collect(Collectors.joining(","));
+        }
+        return builtin;
+    }
+
+    private void runPgbench(List<String> arguments, File output) throws IOException, InterruptedException, MojoExecutionException {
+        List<String> command = new ArrayList<>();
+        command.add(scriptPath().resolve("bin").resolve("pgbench" + executableExtension()).toString());
+        command.addAll(arguments);
+        ProcessBuilder builder = new ProcessBuilder(command)
+                .directory(benchmarkPath().toFile())
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .redirectOutput(output);
+        Map<String, String> env = builder.environment();
+        env.put("PGHOST", connectHost());
+        env.put("PGPORT", String.valueOf(connectPort()));
+        env.put("PGUSER", user);
+        env.put("PGPASSWORD", password);
+        env.put("PGDATABASE", name);
+        int exitCode = builder.start()
+                .waitFor();
+        if (exitCode != 0) {
+            throw new MojoExecutionException("Cannot run pgbench. exit code is: " + exitCode);
+        }
+    }
+
+    /**
+     * Path of benchmark folder
+     *
+     * @return Path object
+     */
+    private Path benchmarkPath() {
+        if (benchmarkFolder == null) {
+            benchmarkFolder = folder.toPath().resolve("benchmark").resolve(instanceName()).toAbsolutePath().toFile();
+        }
+        return benchmarkFolder.toPath().toAbsolutePath();
+    }
+}
@@ -39,16 +39,13 @@ public class PostgresqlSetupMojo extends PostgresqlAbstractMojo {
         log = getLog();
         try {
             Properties properties = getProject().getProperties();
-            if (port == null) {
-                if (portProperty == null) {
-                    portProperty = "postgresql." + name + ".port";
-                }
-                String oldPort = properties.getProperty(portProperty);
-                if (oldPort == null) {
-                    port = allocatePort();
-                    properties.setProperty(portProperty, String.valueOf(port));
-                    log.info("Allocated port:" + port + " for: " + name + " in: " + portProperty);
+            if (isMatrix()) {
+                for (String matrix : versions) {
+                    this.<PostgresqlSetupMojo>forMatrixVersion(matrix)
+                            .setupInstance(properties);
                 }
+            } else {
+                setupInstance(properties);
             }
             if(!properties.containsKey(DUMP_FOLDER_PROPERTY)) {
                 properties.setProperty(DUMP_FOLDER_PROPERTY, dumpPath().toString());
@@ -63,6 +60,37 @@ public class PostgresqlSetupMojo extends PostgresqlAbstractMojo {
         }
     }
 
+    /**
+     * Allocate port and publish properties for one instance
+     *
+     * @param properties project properties
+     * @throws IOException            if a port cannot be allocated
+     * @throws MojoExecutionException if the port cannot be resolved
+     */
+    private void setupInstance(Properties properties) throws IOException, MojoExecutionException {
+        if (port == null) {
+            String oldPort = properties.getProperty(getPropertyName());
+            if (oldPort == null) {
+                WarmInstance warm = keepWarm ? WARM_INSTANCES.get(warmKey()) : null;
+                port = warm != null && warm.isIdle() && !proxy ? warm.getPort() : allocatePort();
+                properties.setProperty(portProperty, String.valueOf(port));
+                log.info("Allocated port:" + port + " for: " + instanceKey() + " in: " + portProperty);
+            }
+        }
+        if (proxy && !properties.containsKey(getServerPortPropertyName())) {
+            WarmInstance warm = keepWarm ? WARM_INSTANCES.get(warmKey()) : null;
+            int serverPort = warm != null && warm.isIdle() ? warm.getPort() : allocatePort();
+            properties.setProperty(getServerPortPropertyName(), String.valueOf(serverPort));
+            log.info("Allocated server port:" + serverPort + " for: " + instanceKey() + " in: " + getServerPortPropertyName());
+        }
+        if (unixSocket) {
+            Path socketPath = socketPath();
+            properties.setProperty(getSocketFolderPropertyName(), socketPath.toString());
+            properties.setProperty(getSocketUrlPropertyName(), socketJdbcUrl(socketPath, resolveServerPort(), name));
+            log.info("Unix domain socket for: " + instanceKey() + " in: " + socketPath);
+        }
+    }
+
     private int allocatePort() throws IOException {
         try (ServerSocket socket = new ServerSocket()) {
             socket.setReuseAddress(true);
@@ -6,6 +6,7 @@ import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
 
 /**
  *
@@ -16,6 +17,13 @@ import org.apache.maven.plugins.annotations.Mojo;
 @Mojo(threadSafe = true, name = "shutdown", defaultPhase = LifecyclePhase.POST_INTEGRATION_TEST, requiresProject = false)
 public class PostgresqlShutdownMojo extends PostgresqlAbstractMojo {
 
+    /**
+     * Seconds a database kept warm (&lt;keepWarm&gt;) may be idle, before it is
+     * stopped
+     */
+    @Parameter(defaultValue = "600", property = "postgresql.keepWarmTimeout")
+    protected long keepWarmTimeout;
+
     private Log log;
 
     @Override
@@ -25,18 +33,63 @@ public class PostgresqlShutdownMojo extends PostgresqlAbstractMojo {
         }
 
         log = getLog();
-        ProcessBuilder stopProcess = DATABASES_STOP_COMMANDS.remove(name);
+        if (isMatrix()) {
+            MojoExecutionException failure = null;
+            for (String matrix : versions) {
+                try {
+                    this.<PostgresqlShutdownMojo>forMatrixVersion(matrix)
+                            .shutdownInstance();
+                } catch (MojoExecutionException ex) {
+                    failure = ex;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } else {
+            shutdownInstance();
+        }
+    }
+
+    private void shutdownInstance() throws MojoExecutionException {
+        String key = instanceKey();
+        ProcessBuilder stopProcess = DATABASES_STOP_COMMANDS.remove(key);
         if (stopProcess == null) {
-            throw new MojoExecutionException("Cannot stop database: " + name + ". Don't know how");
+            throw new MojoExecutionException("Cannot stop database: " + key + ". Don't know how");
+        }
+
+        TrafficProxy trafficProxy = TRAFFIC_PROXIES.remove(key);
+        if (trafficProxy != null) {
+            try {
+                trafficProxy.close();
+            } catch (IOException ex) {
+                log.error("Cannot write traffic report for: " + key, ex);
+            }
+        }
+
+        ResourceSampler sampler = RESOURCE_SAMPLERS.remove(key);
+        if (sampler != null) {
+            try {
+                sampler.close();
+            } catch (IOException ex) {
+                log.error("Cannot write resource samples for: " + key, ex);
+            }
+        }
+
+        WarmInstance warm = keepWarm ? WARM_INSTANCES.get(warmKey()) : null;
+        if (warm != null) {
+            log.info("Keeping database warm: " + key + " (for " + keepWarmTimeout + "s)");
+            warm.release(keepWarmTimeout);
+            return;
         }
 
-        log.info("Stopping database: " + name);
+        log.info("Stopping database: " + key);
         try {
 
             stopProcess.start()
                     .waitFor();
         } catch (IOException | InterruptedException ex) {
-            log.error("Cannot stop database: " + name, ex);
+            log.error("Cannot stop database: " + key, ex);
         }
     }
 
@@ -11,12 +11,24 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.commons.io.FileUtils;
@@ -46,41 +58,68 @@ import static dk.kosmisk.postgresql.maven.plugin.PostgresqlAbstractMojo.DATABASE
 public class PostgresqlStartupMojo extends PostgresqlAbstractMojo {
 
     /**
-     * Where to place the database files. Default is name of folder + "/db/" +
-     * name
+     * Where to place the log file. Default is name of database folder + .log
      */
     @Parameter
-    private File databaseFolder;
+    private File logfile;
 
     /**
-     * Where to place the log file. Default is name of database folder + .log
+     * Scripts to be loaded to setup database
      */
     @Parameter
-    private File logfile;
+    protected List<File> scripts;
 
     /**
-     * User to own database
+     * Map of parameters to be set in postgresql.conf
      */
-    @Parameter(defaultValue = "${user.name}")
-    protected String user;
+    @Parameter
+    protected Map<String, String> settings;
 
     /**
-     * Password for database owner
+     * Map of parameters to be set in postgresql.conf while the scripts are
+     * loaded (ie. fsync=off, autovacuum=off). Afterwards the server is
+     * reloaded, or restarted if needed, with &lt;settings&gt; and the database
+     * is analyzed
      */
-    @Parameter(defaultValue = "${user.name}")
-    protected String password;
+    @Parameter
+    protected Map<String, String> loadSettings;
 
     /**
-     * Scripts to be loaded to setup database
+     * Load relations into shared buffers using pg_prewarm, before reporting
+     * the database as started. The block list is saved in
+     * ${databaseFolder}.autoprewarm.blocks and used by later runs, unless
+     * &lt;prewarmRelations&gt; are given
+     */
+    @Parameter(defaultValue = "false", property = "postgresql.prewarm")
+    protected boolean prewarm;
+
+    /**
+     * Relations to prewarm (default is all relations, smallest first, until
+     * &lt;prewarmLimit&gt; is reached)
      */
     @Parameter
-    protected List<File> scripts;
+    protected List<String> prewarmRelations;
 
     /**
-     * Map of parameters to be set in postgresql.conf
+     * Max number of megabytes to prewarm, when prewarming all relations
+     * (defaults to shared_buffers)
      */
     @Parameter
-    protected Map<String, String> settings;
+    protected Long prewarmLimit;
+
+    /**
+     * Sample cpu, memory and io of the server processes, and pg_stat_database
+     * / pg_stat_bgwriter, from startup until shutdown. Written next to the
+     * logfile, with .log replaced by .samples.csv/.json
+     */
+    @Parameter(defaultValue = "false", property = "postgresql.sampleResources")
+    protected boolean sampleResources;
+
+    /**
+     * Milliseconds between resource samples
+     */
+    @Parameter(defaultValue = "1000")
+    protected long sampleInterval;
 
     /**
      * PostgreSQL binary package group
@@ -118,16 +157,8 @@ public class PostgresqlStartupMojo extends PostgresqlAbstractMojo {
 
     private Log log;
 
-    private String targetFolder;
-
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
-        try {
-            targetFolder = new File(getProject().getBuild().getDirectory()).getCanonicalPath();
-        } catch (IOException ex) {
-            throw new MojoExecutionException("Cannot find target folder", ex);
-        }
-
         if (skip()) {
             return;
         }
@@ -137,15 +168,106 @@ public class PostgresqlStartupMojo extends PostgresqlAbstractMojo {
         }
 
         log = getLog();
+        if (isMatrix()) {
+            startMatrix();
+        } else {
+            startInstance();
+        }
+    }
+
+    /**
+     * Start all versions of &lt;versions&gt; concurrently, and wait for all of
+     * them
+     *
+     * @throws MojoExecutionException if a version cannot be started
+     * @throws MojoFailureException   if a version cannot be started
+     */
+    private void startMatrix() throws MojoExecutionException, MojoFailureException {
+        ExecutorService executor = Executors.newFixedThreadPool(versions.size());
+        try {
+            LinkedHashMap<String, Future<?>> starts = new LinkedHashMap<>();
+            for (String matrix : versions) {
+                PostgresqlStartupMojo instance = forVersion(matrix);
+                starts.put(matrix, executor.submit(() -> {
+                               instance.startInstance();
+                               return null;
+                           }));
+            }
+            Exception failure = null;
+            for (Map.Entry<String, Future<?>> start : starts.entrySet()) {
+                try {
+                    start.getValue().get();
+                } catch (ExecutionException ex) {
+                    log.error("Cannot start version: " + start.getKey() + " of database: " + name, ex.getCause());
+                    if (failure == null) {
+                        failure = ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+                    }
+                }
+            }
+            if (failure instanceof MojoExecutionException) {
+                throw (MojoExecutionException) failure;
+            }
+            if (failure instanceof MojoFailureException) {
+                throw (MojoFailureException) failure;
+            }
+            if (failure != null) {
+                throw new MojoFailureException("Cannot start PostgreSQL Database", failure);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new MojoFailureException("Interrupted while starting PostgreSQL Database", ex);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Make a copy of this, that starts one version of &lt;versions&gt;
+     *
+     * @param matrix the version
+     * @return copy of this with version specific paths
+     */
+    private PostgresqlStartupMojo forVersion(String matrix) {
+        PostgresqlStartupMojo instance = forMatrixVersion(matrix);
+        instance.version = matrix;
+        instance.logfile = logfile == null ? null : new File(logfile.getPath() + "-" + matrix);
+        return instance;
+    }
+
+    /**
+     * Start one PostgreSQL instance
+     *
+     * @throws MojoExecutionException if the instance cannot be started
+     * @throws MojoFailureException   if the instance cannot be started
+     */
+    private void startInstance() throws MojoExecutionException, MojoFailureException {
         try {
-            unpackArtifact();
+            File artifact = unpackArtifact();
 
             Path dataDir = databasePath();
 
-            log.info("Starting up database: " + name);
+            log.info("Starting up database: " + instanceKey());
+            log.info("- using version: " + version);
             log.info("- using port: " + resolvePort());
+            if (proxy) {
+                log.info("- using server port: " + resolveServerPort());
+            }
             log.info("- using datadir: " + dataDir);
             log.info("- using logfile: " + logFile());
+            if (unixSocket) {
+                log.info("- using socket folder: " + socketPath());
+            }
+
+            String fingerprint = null;
+            if (keepWarm) {
+                fingerprint = fingerprint(artifact);
+                if (reuseWarmInstance(fingerprint)) {
+                    prewarm();
+                    startProxy();
+                    startSampler();
+                    return;
+                }
+            }
 
             verifyDataPathAndDelete(dataDir);
 
@@ -160,9 +282,19 @@ public class PostgresqlStartupMojo extends PostgresqlAbstractMojo {
                 throw new MojoExecutionException("Cannot prepare database. exit code is: " + prepareExitCode);
             }
 
-            if (settings != null) {
-                File configFile = databasePath().resolve("postgresql.conf").toFile();
-                processConfig(configFile, settings);
+            if (unixSocket) {
+                mkdirs(socketPath().toFile());
+            }
+
+            File configFile = databasePath().resolve("postgresql.conf").toFile();
+            Map<String, String> configSettings = configSettings();
+            if (!configSettings.isEmpty()) {
+                processConfig(configFile, configSettings);
+            }
+            String testConfig = null;
+            if (loadSettings != null && !loadSettings.isEmpty()) {
+                testConfig = FileUtils.readFileToString(configFile, StandardCharsets.UTF_8);
+                processConfig(configFile, loadSettings);
             }
 
             List<String> startCommand = makeCommand("start");
@@ -179,25 +311,338 @@ public class PostgresqlStartupMojo extends PostgresqlAbstractMojo {
                 throw new MojoExecutionException("Cannot start database. exit code is: " + startExitCode);
             }
 
-            DATABASES_STOP_COMMANDS.put(name, processBuilder(makeCommand("stop")));
+            ProcessBuilder stopCommand = processBuilder(makeCommand("stop"));
+            String key = instanceKey();
+            DATABASES_STOP_COMMANDS.put(key, stopCommand);
 
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-                ProcessBuilder stopProcess = DATABASES_STOP_COMMANDS.remove(name);
+                ProcessBuilder stopProcess = DATABASES_STOP_COMMANDS.remove(key);
 
                 if (stopProcess != null) {
-                    log.info("Stopping database " + name);
+                    log.info("Stopping database " + key);
                     try {
                         stopProcess.start();
                     } catch (IOException ex) {
-                        log.error("Cannot stop database: " + name, ex);
+                        log.error("Cannot stop database: " + key, ex);
                     }
                 }
             }));
+
+            if (testConfig != null) {
+                FileUtils.writeStringToFile(configFile, testConfig, StandardCharsets.UTF_8);
+                applyTestSettings();
+            }
+
+            if (keepWarm) {
+                psql().execute(Psql.ADMIN_DATABASE,
+                               "CREATE DATABASE " + Psql.identifier(templateName()) + " TEMPLATE " + Psql.identifier(name) + ";\n");
+                WARM_INSTANCES.put(warmKey(), new WarmInstance(warmKey(), key, fingerprint, resolveServerPort(), dataDir, stopCommand, log));
+            }
+
+            prewarm();
+            startProxy();
+            startSampler();
         } catch (IOException | ArtifactResolutionException | InterruptedException ex) {
             throw new MojoFailureException("Cannot start PostgreSQL Database", ex);
         }
     }
 
+    /**
+     * Take a warm database into use, if it has been started with the same
+     * fingerprint
+     *
+     * @param fingerprint fingerprint of this configuration
+     * @return if a warm database has been reset and is ready, if not it has
+     *         been stopped (if there was one) and a new has to be started
+     * @throws MojoExecutionException if the database is in use by another
+     *                                build
+     */
+    private boolean reuseWarmInstance(String fingerprint) throws MojoExecutionException {
+        WarmInstance warm = WARM_INSTANCES.get(warmKey());
+        if (warm == null) {
+            return false;
+        }
+        if (!warm.acquire()) {
+            if (warm.isStopped()) {
+                WARM_INSTANCES.remove(warmKey(), warm);
+                return false;
+            }
+            // Never touch a database another build (module) is using
+            throw new MojoExecutionException("Cannot start database: " + instanceKey() + ". Database folder: " + warmKey() + " is in use by another build");
+        }
+        if (!warm.getFingerprint().equals(fingerprint)) {
+            log.info("Stopping warm database: " + instanceKey() + " (configuration has changed)");
+            WARM_INSTANCES.remove(warmKey(), warm);
+            warm.stop();
+            return false;
+        }
+        if (!warm.isRunning()) {
+            log.info("Warm database: " + instanceKey() + " is no longer running");
+            WARM_INSTANCES.remove(warmKey(), warm);
+            warm.stop();
+            return false;
+        }
+        log.info("Reusing warm database: " + instanceKey());
+        ProcessBuilder stopCommand = warm.getStopCommand();
+        DATABASES_STOP_COMMANDS.put(instanceKey(), stopCommand);
+        try {
+            psql().execute(Psql.ADMIN_DATABASE,
+                           "SELECT pg_terminate_backend(pid) FROM pg_stat_activity WHERE datname = " + Psql.literal(name) + " AND pid <> pg_backend_pid();\n" +
+                           "DROP DATABASE " + Psql.identifier(name) + ";\n" +
+                           "CREATE DATABASE " + Psql.identifier(name) + " TEMPLATE " + Psql.identifier(templateName()) + " OWNER " + Psql.identifier(user) + ";\n");
+        } catch (IOException | MojoExecutionException ex) {
+            // E.g. a client reconnected before DROP, or a stale postmaster.pid
+            log.warn("Cannot reset warm database: " + instanceKey() + ", starting a new one", ex);
+            DATABASES_STOP_COMMANDS.remove(instanceKey(), stopCommand);
+            WARM_INSTANCES.remove(warmKey(), warm);
+            warm.stop();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Switch from &lt;loadSettings&gt; to &lt;settings&gt;, by reload or if
+     * any of the load settings requires it by restart, and update statistics
+     *
+     * @throws IOException            if psql or pg_ctl cannot be run
+     * @throws InterruptedException   if interrupted while restarting
+     * @throws MojoExecutionException if the server cannot be reconfigured
+     */
+    private void applyTestSettings() throws IOException, InterruptedException, MojoExecutionException {
+        Psql psql = psql();
+        String names = loadSettings.keySet().stream()
+                .map(Psql::literal)
+                .collect(Collectors.joining(", "));
+        List<String[]> restartSettings = psql.query(Psql.ADMIN_DATABASE,
+                                                    "SELECT name FROM pg_settings WHERE context = 'postmaster' AND name IN (" + names + ");\n");
+        if (restartSettings.isEmpty()) {
+            log.info("Reloading database: " + instanceKey() + " with test settings");
+            psql.execute(Psql.ADMIN_DATABASE, "SELECT pg_reload_conf();\n");
+        } else {
+            log.info("Restarting database: " + instanceKey() + " with test settings");
+            List<String> restartCommand = new ArrayList<>();
+            restartCommand.add(scriptPath().resolve("bin").resolve("pg_ctl" + executableExtension()).toString());
+            restartCommand.addAll(Arrays.asList("-D", databasePath().toString(), "-l", logFile().toString(), "-m", "fast", "-w", "restart"));
+            int restartExitCode = processBuilder(restartCommand)
+                    .start()
+                    .waitFor();
+            if (restartExitCode != 0) {
+                throw new MojoExecutionException("Cannot restart database. exit code is: " + restartExitCode);
+            }
+        }
+        log.info("Analyzing database: " + instanceKey());
+        psql.execute(name, "ANALYZE;\n");
+    }
+
+    /**
+     * Load relations into shared buffers, if requested, and save the block
+     * list for later runs
+     *
+     * @throws IOException            if psql cannot be run or the block list
+     *                                cannot be read
+     * @throws MojoExecutionException if prewarming fails
+     */
+    private void prewarm() throws IOException, MojoExecutionException {
+        if (!prewarm) {
+            return;
+        }
+        Psql psql = psql();
+        psql.execute(name, "CREATE EXTENSION IF NOT EXISTS pg_prewarm;\n");
+        File savedBlocks = new File(databasePath().toString() + ".autoprewarm.blocks");
+        String sql;
+        if (prewarmRelations != null && !prewarmRelations.isEmpty()) {
+            sql = "SELECT coalesce(sum(pg_prewarm(r::regclass)), 0) FROM unnest(ARRAY[" +
+                  prewarmRelations.stream().map(Psql::literal).collect(Collectors.joining(", ")) +
+                  "]) AS r;\n";
+        } else if (savedBlocks.isFile()) {
+            log.info("Prewarming database: " + instanceKey() + " from: " + savedBlocks);
+            sql = prewarmBlocksSql(FileUtils.readLines(savedBlocks, StandardCharsets.UTF_8));
+        } else {
+            String limit = prewarmLimit == null ?
+                           "pg_size_bytes(current_setting('shared_buffers'))" :
+                           String.valueOf(prewarmLimit * 1024 * 1024);
+            sql = "SELECT coalesce(sum(pg_prewarm(oid)), 0) FROM (\n" +
+                  "  SELECT c.oid, sum(pg_relation_size(c.oid)) OVER (ORDER BY pg_relation_size(c.oid), c.oid) AS total\n" +
+                  "  FROM pg_class c JOIN pg_namespace n ON n.oid = c.relnamespace\n" +
+                  "  WHERE c.relkind IN ('r', 'i', 'm') AND n.nspname NOT IN ('pg_catalog', 'information_schema', 'pg_toast')\n" +
+                  ") AS relations WHERE total <= " + limit + ";\n";
+        }
+        List<String[]> blocks = psql.query(name, sql);
+        log.info("Prewarmed database: " + instanceKey() + " with " + (blocks.isEmpty() ? "0" : blocks.get(0)[0]) + " blocks");
+
+        try {
+            List<String[]> oid = psql.query(name, "SELECT oid FROM pg_database WHERE datname = current_database();\n" +
+                                                  "SELECT autoprewarm_dump_now();\n");
+            File dumped = databasePath().resolve("autoprewarm.blocks").toFile();
+            if (!oid.isEmpty() && dumped.isFile()) {
+                String prefix = oid.get(0)[0] + ",";
+                List<String> lines = FileUtils.readLines(dumped, StandardCharsets.UTF_8).stream()
+                        .filter(line -> line.startsWith(prefix))
+                        .collect(Collectors.toList());
+                lines.add(0, "<<" + lines.size() + ">>");
+                FileUtils.writeLines(savedBlocks, StandardCharsets.UTF_8.name(), lines, "\n");
+            }
+        } catch (MojoExecutionException ex) {
+            log.warn("Cannot save block list of database: " + instanceKey() + " - " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Construct sql to load the blocks of a saved autoprewarm block list
+     * <p>
+     * Entries are "database,tablespace,filenode,fork,block", they are mapped
+     * to relations in the current database, and loaded in ranges of
+     * consecutive blocks.
+     *
+     * @param lines content of autoprewarm.blocks
+     * @return sql returning number of blocks loaded
+     */
+    static String prewarmBlocksSql(List<String> lines) {
+        TreeMap<String, TreeSet<Long>> relationBlocks = new TreeMap<>();
+        for (String line : lines) {
+            String[] fields = line.split(",");
+            if (fields.length == 5 && line.matches("[0-9,]+")) {
+                relationBlocks.computeIfAbsent(fields[1] + ", " + fields[2] + ", " + fields[3], k -> new TreeSet<>())
+                        .add(Long.parseLong(fields[4]));
+            }
+        }
+        List<String> ranges = new ArrayList<>();
+        relationBlocks.forEach((relation, blocks) -> {
+            long first = -1;
+            long last = -1;
+            for (long block : blocks) {
+                if (block != last + 1 && first >= 0) {
+                    ranges.add("(" + relation + ", " + first + ", " + last + ")");
+                    first = -1;
+                }
+                if (first < 0) {
+                    first = block;
+                }
+                last = block;
+            }
+            if (first >= 0) {
+                ranges.add("(" + relation + ", " + first + ", " + last + ")");
+            }
+        });
+        if (ranges.isEmpty()) {
+            return "SELECT 0;\n";
+        }
+        return "SELECT coalesce(sum(pg_prewarm(r, 'buffer', f, first, least(last, n - 1))), 0) FROM (\n" +
+               "  SELECT pg_filenode_relation(ts::oid, node::oid) AS r,\n" +
+               "         (ARRAY['main', 'fsm', 'vm', 'init'])[fork + 1] AS f, first::bigint AS first, last::bigint AS last\n" +
+               "  FROM (VALUES " + String.join(", ", ranges) + ") AS b(ts, node, fork, first, last)\n" +
+               ") AS ranges, LATERAL (SELECT pg_relation_size(r, f) / current_setting('block_size')::bigint AS n) AS size\n" +
+               "WHERE r IS NOT NULL AND first < n;\n";
+    }
+
+    /**
+     * Start the traffic recording proxy, if requested
+     *
+     * @throws IOException            if the proxy cannot listen
+     * @throws MojoExecutionException if ports or paths cannot be resolved
+     */
+    private void startProxy() throws IOException, MojoExecutionException {
+        if (!proxy) {
+            return;
+        }
+        TrafficProxy old = TRAFFIC_PROXIES.remove(instanceKey());
+        if (old != null) {
+            old.close();
+        }
+        log.info("- proxying port: " + resolvePort() + " to: " + resolveServerPort());
+        TRAFFIC_PROXIES.put(instanceKey(), new TrafficProxy(name, resolvePort(), resolveServerPort(),
+                                                            new File(databasePath().toString() + ".traffic.json"), log));
+    }
+
+    /**
+     * Start sampling resources, if requested
+     *
+     * @throws MojoExecutionException if paths cannot be resolved
+     */
+    private void startSampler() throws MojoExecutionException {
+        if (!sampleResources) {
+            return;
+        }
+        log.info("- sampling resources every " + sampleInterval + "ms");
+        ResourceSampler sampler = new ResourceSampler(name, databasePath(), psql(),
+                                                      new File(logFile().getPath().replaceFirst("\\.log$", "") + ".samples"), log);
+        ResourceSampler old = RESOURCE_SAMPLERS.put(instanceKey(), sampler);
+        if (old != null) {
+            try {
+                old.close();
+            } catch (IOException ex) {
+                log.error("Cannot write resource samples for: " + instanceKey(), ex);
+            }
+        }
+        sampler.start(sampleInterval);
+    }
+
+    /**
+     * Name of database holding the state after scripts has been run, when
+     * keeping warm
+     *
+     * @return database name
+     */
+    private String templateName() {
+        return name + "_warm_template";
+    }
+
+    /**
+     * Compute a fingerprint of everything that determines the content of the
+     * database
+     *
+     * @param artifact the postgresql-binary artifact
+     * @return hex encoded sha-256
+     * @throws IOException            if a script cannot be read
+     * @throws MojoExecutionException if paths cannot be resolved
+     */
+    private String fingerprint(File artifact) throws IOException, MojoExecutionException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("Cannot compute SHA-256", ex);
+        }
+        Consumer<String> add = s -> digest.update((s + "\0").getBytes(StandardCharsets.UTF_8));
+        add.accept(artifact.getAbsolutePath());
+        add.accept(String.valueOf(artifact.length()));
+        add.accept(String.valueOf(artifact.lastModified()));
+        add.accept(scriptPath().toString());
+        add.accept(databasePath().toString());
+        add.accept(logFile().toString());
+        add.accept(String.valueOf(resolveServerPort()));
+        add.accept(user);
+        add.accept(password);
+        new TreeMap<>(configSettings())
+                .forEach((key, value) -> add.accept(key + "=" + value));
+        if (loadSettings != null) {
+            new TreeMap<>(loadSettings)
+                    .forEach((key, value) -> add.accept("load:" + key + "=" + value));
+        }
+        if (scripts != null) {
+            for (File script : scripts) {
+                add.accept(script.getAbsolutePath());
+                digest.update(Files.readAllBytes(script.toPath()));
+            }
+        }
+        StringBuilder fingerprint = new StringBuilder();
+        for (byte b : digest.digest()) {
+            fingerprint.append(String.format("%02x", b));
+        }
+        return fingerprint.toString();
+    }
+
+    /**
+     * Construct a psql runner connecting to this instance
+     *
+     * @return psql object
+     * @throws MojoExecutionException if the port cannot be resolved
+     */
+    private Psql psql() throws MojoExecutionException {
+        return new Psql(scriptPath(), connectHost(), resolveServerPort());
+    }
+
     static void processConfig(File configFile, Map<String, String> settings) throws IOException {
         String config = FileUtils.readFileToString(configFile, StandardCharsets.UTF_8);
         for (Map.Entry<String, String> setting : settings.entrySet()) {
@@ -229,32 +674,20 @@ public class PostgresqlStartupMojo extends PostgresqlAbstractMojo {
     }
 
     /**
-     * Path of scripts folder
-     *
-     * @return Path object
-     */
-    private Path scriptPath() {
-        return folder.toPath().resolve("binary").toAbsolutePath();
-    }
-
-    /**
-     * Path of database folder
+     * Settings for postgresql.conf, those given in &lt;settings&gt; and those
+     * implied by other options
      *
-     * @return Path object
+     * @return map of settings
      */
-    private Path databasePath() throws MojoExecutionException {
-        if (databaseFolder == null) {
-            try {
-                databaseFolder = folder.toPath().resolve("db").resolve("name").toFile().getCanonicalFile();
-            } catch (IOException ex) {
-                throw new MojoExecutionException("Cannot locate path of databaseFolder", ex);
-            }
+    private Map<String, String> configSettings() {
+        LinkedHashMap<String, String> configSettings = new LinkedHashMap<>();
+        if (unixSocket) {
+            configSettings.put("unix_socket_directories", sqlQuote(socketPath().toString()));
         }
-        try {
-            return databaseFolder.getCanonicalFile().toPath();
-        } catch (IOException ex) {
-            throw new MojoExecutionException("Cannot locate path of databaseFolder", ex);
+        if (settings != null) {
+            configSettings.putAll(settings);
         }
+        return configSettings;
     }
 
     /**
@@ -276,14 +709,9 @@ public class PostgresqlStartupMojo extends PostgresqlAbstractMojo {
     private void verifyDataPathAndDelete(Path dataPath) throws MojoExecutionException, IOException {
         if (dataPath.toFile().exists()) {
             try {
-                Path traverse = dataPath;
-                Path root = traverse.getRoot();
-                while (!root.equals(traverse)) {
-                    if (traverse.toFile().getCanonicalPath().equals(targetFolder)) {
-                        deleteFileOrFolder(dataPath);
-                        return;
-                    }
-                    traverse = traverse.getParent();
+                if (isInTargetFolder(dataPath)) {
+                    deleteFileOrFolder(dataPath);
+                    return;
                 }
                 throw new MojoExecutionException("Security violation, will not remove datafoler " + dataPath + " outside target folder");
             } catch (IOException ex) {
@@ -319,8 +747,8 @@ public class PostgresqlStartupMojo extends PostgresqlAbstractMojo {
         Map<String, String> env = builder.environment();
         env.put("PLUGIN_INSTALL_DIR", scriptPath().toString());
         env.put("PLUGIN_INSTALL_DIR_SQL", sqlQuote(scriptPath().toString()));
-        env.put("PLUGIN_PORT", String.valueOf(resolvePort()));
-        env.put("PLUGIN_PORT_SQL", sqlQuote(String.valueOf(resolvePort())));
+        env.put("PLUGIN_PORT", String.valueOf(resolveServerPort()));
+        env.put("PLUGIN_PORT_SQL", sqlQuote(String.valueOf(resolveServerPort())));
         env.put("PLUGIN_USER", user);
         env.put("PLUGIN_USER_SQL", sqlQuote(user));
         env.put("PLUGIN_PASSWORD", password);
@@ -331,6 +759,12 @@ public class PostgresqlStartupMojo extends PostgresqlAbstractMojo {
         env.put("PLUGIN_DATA_DIR_SQL", sqlQuote(databasePath().toString()));
         env.put("PLUGIN_LOG_FILE", logFile().toString());
         env.put("PLUGIN_LOG_FILE_SQL", sqlQuote(logFile().toString()));
+        if (unixSocket) {
+            env.put("PLUGIN_SOCKET_DIR", socketPath().toString());
+            env.put("PLUGIN_SOCKET_DIR_SQL", sqlQuote(socketPath().toString()));
+            // libpq based tools in the scripts (pg_ctl -w, psql) connect through the socket
+            env.put("PGHOST", socketPath().toString());
+        }
         return builder;
     }
 
@@ -341,11 +775,12 @@ public class PostgresqlStartupMojo extends PostgresqlAbstractMojo {
     /**
      * Unpack an artifact if none exists or overwrite is defined
      *
+     * @return file location of artifact
      * @throws ArtifactResolutionException Cannot find artifact
      * @throws IOException                 if uinpacking is impossible
      * @throws MojoFailureException        if an internal error has happened
      */
-    private void unpackArtifact() throws ArtifactResolutionException, IOException, MojoFailureException {
+    private File unpackArtifact() throws ArtifactResolutionException, IOException, MojoFailureException {
         File file = resolveArtifact();
         String key = file.getAbsolutePath() + " -> " + scriptPath().toAbsolutePath();
         if (ARTIFACT_UNPACKED.add(key) &&
@@ -359,6 +794,7 @@ public class PostgresqlStartupMojo extends PostgresqlAbstractMojo {
         } else {
             log.info("Reusing unpacked postgres-binary");
         }
+        return file;
     }
 
     /**
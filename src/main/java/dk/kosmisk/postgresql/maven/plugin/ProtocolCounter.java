@@ -0,0 +1,150 @@
+package dk.kosmisk.postgresql.maven.plugin;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Count PostgreSQL wire protocol messages in both directions of a connection
+ * <p>
+ * The data is fed in the chunks it is read in, messages may span several
+ * chunks. Counting stops if the connection is encrypted (SSL/GSS) or the
+ * stream cannot be parsed.
+ *
+ * @author Source (source (at) kosmisk.dk)
+ */
+class ProtocolCounter {
+
+    private static final int CANCEL_REQUEST = 80877102;
+    private static final int SSL_REQUEST = 80877103;
+    private static final int GSSENC_REQUEST = 80877104;
+
+    private final Direction frontend = new Direction(true);
+    private final Direction backend = new Direction(false);
+    private boolean parsing = true;
+
+    /**
+     * Account for data sent from the client
+     *
+     * @param data bytes from position to limit are consumed
+     */
+    void frontend(ByteBuffer data) {
+        frontend.feed(data);
+    }
+
+    /**
+     * Account for data sent from the server
+     *
+     * @param data bytes from position to limit are consumed
+     */
+    void backend(ByteBuffer data) {
+        backend.feed(data);
+    }
+
+    Map<String, Long> frontendMessages() {
+        return frontend.messages;
+    }
+
+    Map<String, Long> backendMessages() {
+        return backend.messages;
+    }
+
+    /**
+     * Has all data been parsed
+     *
+     * @return false if the connection is encrypted or not the PostgreSQL
+     *         protocol
+     */
+    boolean isParsing() {
+        return parsing;
+    }
+
+    private final class Direction {
+
+        private final Map<String, Long> messages = new TreeMap<>();
+        private final byte[] header = new byte[8];
+        private int headerPos;
+        private long remaining;
+        private boolean untyped; // Frontend startup phase: no type byte
+        private boolean singleByte; // Backend answer to SSL/GSS request
+
+        private Direction(boolean frontend) {
+            this.untyped = frontend;
+        }
+
+        private int headerSize() {
+            if (singleByte) {
+                return 1;
+            }
+            return untyped ? 8 : 5;
+        }
+
+        private void feed(ByteBuffer data) {
+            while (parsing && data.hasRemaining()) {
+                if (remaining > 0) {
+                    int skip = (int) Math.min(remaining, data.remaining());
+                    // Cast: ByteBuffer.position(int) does not exist on Java 8
+                    ((Buffer) data).position(data.position() + skip);
+                    remaining -= skip;
+                    continue;
+                }
+                header[headerPos++] = data.get();
+                if (headerPos == headerSize()) {
+                    headerPos = 0;
+                    message();
+                }
+            }
+            ((Buffer) data).position(data.limit());
+        }
+
+        private void message() {
+            if (singleByte) {
+                singleByte = false;
+                count("SSL/GSS response " + (char) header[0]);
+                if (header[0] != 'N') {
+                    parsing = false; // Encrypted from here on
+                }
+                return;
+            }
+            if (untyped) {
+                int length = ByteBuffer.wrap(header, 0, 4).getInt();
+                int code = ByteBuffer.wrap(header, 4, 4).getInt();
+                switch (code) {
+                    case SSL_REQUEST:
+                        count("SSLRequest");
+                        backend.singleByte = true;
+                        break;
+                    case GSSENC_REQUEST:
+                        count("GSSENCRequest");
+                        backend.singleByte = true;
+                        break;
+                    case CANCEL_REQUEST:
+                        count("CancelRequest");
+                        break;
+                    default:
+                        count("StartupMessage");
+                        untyped = false;
+                        break;
+                }
+                setRemaining(length - 8L);
+            } else {
+                int length = ByteBuffer.wrap(header, 1, 4).getInt();
+                count(String.valueOf((char) header[0]));
+                setRemaining(length - 4L);
+            }
+        }
+
+        private void setRemaining(long length) {
+            if (length < 0 || length > Integer.MAX_VALUE) {
+                parsing = false; // Not the PostgreSQL protocol
+            } else {
+                remaining = length;
+            }
+        }
+
+        private void count(String type) {
+            messages.merge(type, 1L, Long::sum);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package dk.kosmisk.postgresql.maven.plugin;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Run sql through the psql client of the unpacked postgresql-binary package
+ * <p>
+ * Connects as the administrative user (postgres), which the binary package
+ * sets up with local access.
+ *
+ * @author Source (source (at) kosmisk.dk)
+ */
+class Psql {
+
+    static final String ADMIN_USER = "postgres";
+    static final String ADMIN_DATABASE = "postgres";
+
+    private final Path binaryPath;
+    private final String host;
+    private final int port;
+
+    /**
+     * Construct a psql runner
+     *
+     * @param binaryPath where the postgresql-binary package has been unpacked
+     * @param host       hostname or unix domain socket folder
+     * @param port       port number of instance
+     */
+    Psql(Path binaryPath, String host, int port) {
+        this.binaryPath = binaryPath;
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Execute sql statements, each in its own transaction
+     *
+     * @param database database to connect to
+     * @param sql      statements separated by ;
+     * @throws IOException            if psql cannot be run
+     * @throws MojoExecutionException if the sql fails
+     */
+    void execute(String database, String sql) throws IOException, MojoExecutionException {
+        run(database, sql);
+    }
+
+    /**
+     * Execute a query
+     *
+     * @param database database to connect to
+     * @param sql      query
+     * @return rows with columns split by tab
+     * @throws IOException            if psql cannot be run
+     * @throws MojoExecutionException if the sql fails
+     */
+    List<String[]> query(String database, String sql) throws IOException, MojoExecutionException {
+        List<String[]> rows = new ArrayList<>();
+        for (String line : run(database, sql)) {
+            rows.add(line.split("\t", -1));
+        }
+        return rows;
+    }
+
+    private List<String> run(String database, String sql) throws IOException, MojoExecutionException {
+        ProcessBuilder builder = new ProcessBuilder(Arrays.asList(
+                binaryPath.resolve("bin").resolve("psql" + PostgresqlAbstractMojo.executableExtension()).toString(),
+                "-X", "-q", "-A", "-t", "-F", "\t", "-v", "ON_ERROR_STOP=1", "-f", "-"))
+                .directory(binaryPath.toFile())
+                .redirectError(ProcessBuilder.Redirect.INHERIT);
+        Map<String, String> env = builder.environment();
+        env.put("PGHOST", host);
+        env.put("PGPORT", String.valueOf(port));
+        env.put("PGUSER", ADMIN_USER);
+        env.put("PGDATABASE", database);
+        Process process = builder.start();
+        try (OutputStream os = process.getOutputStream()) {
+            os.write(sql.getBytes(StandardCharsets.UTF_8));
+        }
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            for (String line = reader.readLine() ; line != null ; line = reader.readLine()) {
+                lines.add(line);
+            }
+        }
+        try {
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new MojoExecutionException("Cannot execute sql on: " + database + ". exit code is: " + exitCode);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while executing sql on: " + database, ex);
+        }
+        return lines;
+    }
+
+    /**
+     * Quote an sql identifier
+     *
+     * @param s identifier
+     * @return double quoted identifier
+     */
+    static String identifier(String s) {
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Quote an sql string literal
+     *
+     * @param s string
+     * @return single quoted string
+     */
+    static String literal(String s) {
+        return "'" + s.replace("'", "''") + "'";
+    }
+}
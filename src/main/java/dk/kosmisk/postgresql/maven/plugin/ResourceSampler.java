@@ -0,0 +1,351 @@
+package dk.kosmisk.postgresql.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Periodic sampling of the resource usage of a PostgreSQL instance
+ * <p>
+ * Each sample has cpu time, resident memory and io bytes of the postmaster
+ * and its backends (from /proc, when available) and deltas of the numeric
+ * columns of pg_stat_database and pg_stat_bgwriter.
+ * <p>
+ * The resident memory is the private memory (RssAnon) of all processes, plus
+ * the shared memory (RssShmem) once, as the maximum of any process, since all
+ * backends map the same shared buffers.
+ *
+ * @author Source (source (at) kosmisk.dk)
+ */
+class ResourceSampler {
+
+    private static final Path PROC = Paths.get("/proc");
+    private static final long CLOCK_TICKS_PER_SECOND = clockTicksPerSecond();
+    private static final Pattern NUMBER = Pattern.compile("-?\\d+(\\.\\d+)?");
+
+    private final String name;
+    private final Path dataPath;
+    private final Psql psql;
+    private final File csvFile;
+    private final File jsonFile;
+    private final Log log;
+    private final ScheduledExecutorService executor;
+    private final long start = System.currentTimeMillis();
+    private final List<Map<String, String>> samples = new ArrayList<>();
+    private final Map<Integer, long[]> previousProcesses = new HashMap<>();
+    private final Map<String, Double> previousStats = new HashMap<>();
+    private boolean warnedProc;
+
+    /**
+     * Construct a sampler
+     *
+     * @param name     database name
+     * @param dataPath data directory (containing postmaster.pid)
+     * @param psql     psql runner for the instance
+     * @param output   output file prefix (.csv and .json is appended)
+     * @param log      maven logger
+     */
+    ResourceSampler(String name, Path dataPath, Psql psql, File output, Log log) {
+        this.name = name;
+        this.dataPath = dataPath;
+        this.psql = psql;
+        this.csvFile = new File(output.getPath() + ".csv");
+        this.jsonFile = new File(output.getPath() + ".json");
+        this.log = log;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "postgresql-sampler-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Start sampling
+     *
+     * @param interval milliseconds between samples
+     */
+    void start(long interval) {
+        executor.scheduleAtFixedRate(this::sample, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop sampling, take a final sample and write csv and json files
+     *
+     * @throws IOException if the files cannot be written
+     */
+    void close() throws IOException {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        sample();
+        write();
+        log.info("Resource samples for: " + name + " in: " + csvFile + " and: " + jsonFile);
+    }
+
+    private synchronized void sample() {
+        long now = System.currentTimeMillis();
+        LinkedHashMap<String, String> sample = new LinkedHashMap<>();
+        sample.put("timestamp", String.valueOf(now));
+        sample.put("elapsed_ms", String.valueOf(now - start));
+        try {
+            sampleProcesses(sample);
+        } catch (IOException | RuntimeException ex) {
+            log.debug("Cannot sample processes of: " + name, ex);
+        }
+        try {
+            sampleStats(sample);
+        } catch (IOException | MojoExecutionException | RuntimeException ex) {
+            log.debug("Cannot sample statistics of: " + name, ex);
+        }
+        samples.add(sample);
+    }
+
+    private void sampleProcesses(Map<String, String> sample) throws IOException {
+        if (!PROC.toFile().isDirectory()) {
+            if (!warnedProc) {
+                log.info("No /proc filesystem, not sampling process resources of: " + name);
+                warnedProc = true;
+            }
+            return;
+        }
+        File pidFile = dataPath.resolve("postmaster.pid").toFile();
+        if (!pidFile.exists()) {
+            return;
+        }
+        int postmaster = Integer.parseInt(FileUtils.readLines(pidFile, StandardCharsets.UTF_8).get(0).trim());
+        List<Integer> pids = new ArrayList<>();
+        pids.add(postmaster);
+        File[] entries = PROC.toFile().listFiles((dir, file) -> file.matches("\\d+"));
+        if (entries != null) {
+            for (File entry : entries) {
+                String[] stat = procStat(entry.toPath());
+                if (stat != null && parentPid(stat) == postmaster) {
+                    pids.add(Integer.parseInt(entry.getName()));
+                }
+            }
+        }
+
+        long anonKb = 0;
+        long shmemKb = 0;
+        HashMap<Integer, long[]> current = new HashMap<>();
+        for (Integer pid : pids) {
+            Path path = PROC.resolve(String.valueOf(pid));
+            String[] stat = procStat(path);
+            if (stat == null) {
+                continue; // Has exited
+            }
+            List<String> io = procLines(path.resolve("io"));
+            List<String> status = procLines(path.resolve("status"));
+            current.put(pid, new long[] {
+                cpuTicks(stat),
+                procValue(io, "read_bytes"),
+                procValue(io, "write_bytes")
+            });
+            anonKb += procValue(status, "RssAnon");
+            shmemKb = Math.max(shmemKb, procValue(status, "RssShmem"));
+        }
+        long[] deltas = deltas(current, previousProcesses, samples.isEmpty());
+        previousProcesses.clear();
+        previousProcesses.putAll(current);
+
+        sample.put("processes", String.valueOf(current.size()));
+        sample.put("cpu_ms", String.valueOf(deltas[0] * 1000 / CLOCK_TICKS_PER_SECOND));
+        sample.put("rss_kb", String.valueOf(anonKb + shmemKb));
+        sample.put("rss_anon_kb", String.valueOf(anonKb));
+        sample.put("rss_shmem_kb", String.valueOf(shmemKb));
+        sample.put("read_bytes", String.valueOf(deltas[1]));
+        sample.put("write_bytes", String.valueOf(deltas[2]));
+    }
+
+    /**
+     * Sum of the growth of the counters of all processes since the previous
+     * sample
+     * <p>
+     * The first sample is the baseline (all zero), processes started later
+     * count from zero, and processes that have exited are not counted.
+     *
+     * @param current  counters per pid
+     * @param previous counters per pid of the previous sample
+     * @param baseline if this is the first sample
+     * @return sum of the deltas of each counter
+     */
+    static long[] deltas(Map<Integer, long[]> current, Map<Integer, long[]> previous, boolean baseline) {
+        long[] sum = null;
+        for (Map.Entry<Integer, long[]> entry : current.entrySet()) {
+            long[] values = entry.getValue();
+            if (sum == null) {
+                sum = new long[values.length];
+            }
+            long[] before = baseline ? values : previous.getOrDefault(entry.getKey(), new long[values.length]);
+            for (int i = 0; i < values.length; i++) {
+                sum[i] += values[i] - before[i];
+            }
+        }
+        return sum == null ? new long[3] : sum;
+    }
+
+    /**
+     * Cpu time used by a process
+     *
+     * @param stat fields from {@link #procStatFields(String)}
+     * @return utime + stime in clock ticks
+     */
+    static long cpuTicks(String[] stat) {
+        return Long.parseLong(stat[11]) + Long.parseLong(stat[12]);
+    }
+
+    /**
+     * Parent pid of a process
+     *
+     * @param stat fields from {@link #procStatFields(String)}
+     * @return ppid
+     */
+    static int parentPid(String[] stat) {
+        return Integer.parseInt(stat[1]);
+    }
+
+    /**
+     * Fields of /proc/[pid]/stat after the command name
+     *
+     * @param path /proc/[pid]
+     * @return fields starting with state (index 0 is field 3 in proc(5)) or
+     *         null if the process has exited
+     */
+    private static String[] procStat(Path path) {
+        try {
+            return procStatFields(new String(Files.readAllBytes(path.resolve("stat")), StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Fields of the content of /proc/[pid]/stat after the command name
+     * <p>
+     * The command name is in parentheses and may contain spaces and
+     * parentheses itself, so it ends at the last ')'
+     *
+     * @param stat content of /proc/[pid]/stat
+     * @return fields starting with state (index 0 is field 3 in proc(5))
+     */
+    static String[] procStatFields(String stat) {
+        return stat.substring(stat.lastIndexOf(')') + 2).trim().split(" ");
+    }
+
+    /**
+     * Lines of a proc file
+     *
+     * @param file proc file
+     * @return lines or empty if it cannot be read (no permission or has
+     *         exited)
+     */
+    private static List<String> procLines(Path file) {
+        try {
+            return Files.readAllLines(file, StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Value from the lines of a "key: value [unit]" proc file
+     *
+     * @param lines proc file content
+     * @param key   key
+     * @return value or 0 if it is not there
+     */
+    static long procValue(List<String> lines, String key) {
+        for (String line : lines) {
+            if (line.startsWith(key + ":")) {
+                try {
+                    return Long.parseLong(line.substring(key.length() + 1).trim().split("\\s+")[0]);
+                } catch (NumberFormatException ex) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Clock ticks per second (the unit of cpu times in /proc), from getconf
+     *
+     * @return CLK_TCK or 100 (the value on almost all Linux systems) if it
+     *         cannot be determined
+     */
+    private static long clockTicksPerSecond() {
+        try {
+            Process process = new ProcessBuilder("getconf", "CLK_TCK")
+                    .redirectErrorStream(true)
+                    .start();
+            String output = IOUtils.toString(process.getInputStream(), StandardCharsets.UTF_8).trim();
+            if (process.waitFor() == 0 && output.matches("\\d+") && Long.parseLong(output) > 0) {
+                return Long.parseLong(output);
+            }
+        } catch (IOException | RuntimeException ex) {
+            // No getconf
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return 100;
+    }
+
+    private void sampleStats(Map<String, String> sample) throws IOException, MojoExecutionException {
+        List<String[]> rows = psql.query(Psql.ADMIN_DATABASE,
+                                         "SELECT 'database.' || key, value FROM pg_stat_database d, json_each_text(row_to_json(d)) WHERE d.datname = " + Psql.literal(name) + "\n" +
+                                         "UNION ALL\n" +
+                                         "SELECT 'bgwriter.' || key, value FROM pg_stat_bgwriter b, json_each_text(row_to_json(b));\n");
+        for (String[] row : rows) {
+            if (row.length == 2 && NUMBER.matcher(row[1]).matches()) {
+                double value = Double.parseDouble(row[1]);
+                Double previous = previousStats.put(row[0], value);
+                double delta = previous == null ? 0 : value - previous;
+                sample.put(row[0], delta == Math.rint(delta) ? String.valueOf((long) delta) : Json.number(delta));
+            }
+        }
+    }
+
+    private synchronized void write() throws IOException {
+        LinkedHashSet<String> columns = new LinkedHashSet<>();
+        samples.forEach(sample -> columns.addAll(sample.keySet()));
+
+        StringBuilder csv = new StringBuilder();
+        csv.append(String.join(",", columns)).append("\n");
+        for (Map<String, String> sample : samples) {
+            csv.append(columns.stream()
+                    .map(column -> sample.getOrDefault(column, ""))
+                    .collect(Collectors.joining(",")))
+                    .append("\n");
+        }
+        FileUtils.writeStringToFile(csvFile, csv.toString(), StandardCharsets.UTF_8);
+
+        String json = samples.stream()
+                .map(sample -> sample.entrySet().stream()
+                        .map(e -> Json.string(e.getKey()) + ": " + e.getValue())
+                        .collect(Collectors.joining(", ", "  {", "}")))
+                .collect(Collectors.joining(",\n", "[\n", "\n]\n"));
+        FileUtils.writeStringToFile(jsonFile, json, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,332 @@
+package dk.kosmisk.postgresql.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * TCP proxy in front of a PostgreSQL instance, that records traffic
+ * statistics per connection
+ * <p>
+ * Runs a single NIO selector thread. A round trip is counted when the server
+ * responds to data from the client, the latency is the time from the first
+ * client byte to the first server byte. Only the statistics of a connection
+ * are kept when it is closed, the channels and buffers are released.
+ *
+ * @author Source (source (at) kosmisk.dk)
+ */
+class TrafficProxy {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String name;
+    private final int serverPort;
+    private final File reportFile;
+    private final Log log;
+    private final Selector selector;
+    private final ServerSocketChannel listener;
+    private final List<Stats> connections = new ArrayList<>();
+    private final long started = System.nanoTime();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    /**
+     * Start a proxy
+     *
+     * @param name       database name
+     * @param port       port to listen on (loopback interface only)
+     * @param serverPort port the server listens on
+     * @param reportFile where to write the report
+     * @param log        maven logger
+     * @throws IOException if the port cannot be bound
+     */
+    TrafficProxy(String name, int port, int serverPort, File reportFile, Log log) throws IOException {
+        this.name = name;
+        this.serverPort = serverPort;
+        this.reportFile = reportFile;
+        this.log = log;
+        this.selector = Selector.open();
+        this.listener = ServerSocketChannel.open();
+        listener.socket().setReuseAddress(true);
+        listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        listener.configureBlocking(false);
+        listener.register(selector, SelectionKey.OP_ACCEPT);
+        this.thread = new Thread(this::run, "postgresql-proxy-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the proxy, close all connections and write the report
+     *
+     * @throws IOException if the report cannot be written
+     */
+    void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(60_000);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            // The connections are still owned by the selector thread
+            listener.close();
+            selector.close();
+            log.warn("Proxy for: " + name + " did not stop, no traffic report written");
+            return;
+        }
+        List<Connection> open = selector.keys().stream()
+                .map(SelectionKey::attachment)
+                .filter(Connection.class::isInstance)
+                .map(Connection.class::cast)
+                .distinct()
+                .collect(Collectors.toList());
+        for (Connection connection : open) {
+            connection.close();
+        }
+        listener.close();
+        selector.close();
+        FileUtils.writeStringToFile(reportFile, report(), StandardCharsets.UTF_8);
+        log.info("Proxy traffic for: " + name + " - " + connections.size() + " connections, " +
+                 connections.stream().mapToLong(c -> c.roundTrips).sum() + " round trips, " +
+                 connections.stream().mapToLong(c -> c.bytesToServer + c.bytesToClient).sum() + " bytes. Report in: " + reportFile);
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isAcceptable()) {
+                        accept();
+                    } else if (key.isValid()) {
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            connection.handle(key);
+                        } catch (IOException ex) {
+                            log.debug("Proxy connection error for: " + name, ex);
+                            connection.close();
+                        }
+                    }
+                }
+            } catch (IOException ex) {
+                log.error("Proxy error for: " + name, ex);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel client = listener.accept();
+        if (client == null) {
+            return;
+        }
+        client.configureBlocking(false);
+        client.socket().setTcpNoDelay(true);
+        SocketChannel server = SocketChannel.open();
+        server.configureBlocking(false);
+        server.socket().setTcpNoDelay(true);
+        Stats stats = new Stats(connections.size() + 1);
+        connections.add(stats);
+        Connection connection = new Connection(stats, client, server);
+        connection.clientKey = client.register(selector, 0, connection);
+        connection.serverKey = server.register(selector, SelectionKey.OP_CONNECT, connection);
+        try {
+            server.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), serverPort));
+        } catch (IOException ex) {
+            log.debug("Proxy cannot connect for: " + name, ex);
+            connection.close();
+        }
+    }
+
+    private String report() {
+        long roundTrips = connections.stream().mapToLong(c -> c.roundTrips).sum();
+        long latency = connections.stream().mapToLong(c -> c.latencyTotal).sum();
+        long latencyMax = connections.stream().mapToLong(c -> c.latencyMax).max().orElse(0);
+        return "{\n" +
+               "  \"database\": " + Json.string(name) + ",\n" +
+               "  \"connections\": " + connections.size() + ",\n" +
+               "  \"bytes_to_server\": " + connections.stream().mapToLong(c -> c.bytesToServer).sum() + ",\n" +
+               "  \"bytes_to_client\": " + connections.stream().mapToLong(c -> c.bytesToClient).sum() + ",\n" +
+               "  \"round_trips\": " + roundTrips + ",\n" +
+               "  \"latency_ms\": {\"average\": " + Json.number(roundTrips == 0 ? Double.NaN : latency / 1e6 / roundTrips) +
+               ", \"max\": " + Json.number(latencyMax / 1e6) + "},\n" +
+               "  \"per_connection\": [\n" +
+               connections.stream()
+                       .map(Stats::toJson)
+                       .collect(Collectors.joining(",\n")) +
+               "\n  ]\n" +
+               "}\n";
+    }
+
+    private static String messagesJson(Map<String, Long> messages) {
+        return messages.entrySet().stream()
+                .map(e -> Json.string(e.getKey()) + ": " + e.getValue())
+                .collect(Collectors.joining(", ", "{", "}"));
+    }
+
+    /**
+     * Statistics of a connection, outlives the connection itself
+     */
+    private final class Stats {
+
+        private final int id;
+        private final ProtocolCounter protocol = new ProtocolCounter();
+        private final long opened = System.nanoTime();
+        private long closed;
+        private long bytesToServer;
+        private long bytesToClient;
+        private long roundTrips;
+        private long latencyTotal;
+        private long latencyMax;
+
+        private Stats(int id) {
+            this.id = id;
+        }
+
+        private String toJson() {
+            return "    {\"id\": " + id +
+                   ", \"opened_ms\": " + Json.number((opened - started) / 1e6) +
+                   ", \"duration_ms\": " + Json.number(((closed == 0 ? System.nanoTime() : closed) - opened) / 1e6) +
+                   ", \"bytes_to_server\": " + bytesToServer +
+                   ", \"bytes_to_client\": " + bytesToClient +
+                   ", \"round_trips\": " + roundTrips +
+                   ", \"latency_ms\": {\"average\": " + Json.number(roundTrips == 0 ? Double.NaN : latencyTotal / 1e6 / roundTrips) +
+                   ", \"max\": " + Json.number(latencyMax / 1e6) + "}" +
+                   ", \"encrypted\": " + !protocol.isParsing() +
+                   ", \"frontend_messages\": " + messagesJson(protocol.frontendMessages()) +
+                   ", \"backend_messages\": " + messagesJson(protocol.backendMessages()) + "}";
+        }
+    }
+
+    /**
+     * An open connection, only referenced from its selection keys
+     */
+    private final class Connection {
+
+        private final Stats stats;
+        private final SocketChannel client;
+        private final SocketChannel server;
+        private final ByteBuffer toServer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final ByteBuffer toClient = ByteBuffer.allocate(BUFFER_SIZE);
+        private SelectionKey clientKey;
+        private SelectionKey serverKey;
+        private boolean clientEof;
+        private boolean serverEof;
+        private long requestStart = -1;
+
+        private Connection(Stats stats, SocketChannel client, SocketChannel server) {
+            this.stats = stats;
+            this.client = client;
+            this.server = server;
+        }
+
+        private void handle(SelectionKey key) throws IOException {
+            if (key.isConnectable()) {
+                server.finishConnect();
+            }
+            if (key.isReadable()) {
+                if (key == clientKey) {
+                    clientEof = read(client, toServer, true);
+                } else {
+                    serverEof = read(server, toClient, false);
+                }
+            }
+            flush(toServer, client, server, clientEof, clientKey, serverKey);
+            flush(toClient, server, client, serverEof, serverKey, clientKey);
+            if (clientEof && serverEof && toServer.position() == 0 && toClient.position() == 0) {
+                close();
+            }
+        }
+
+        private boolean read(SocketChannel channel, ByteBuffer buffer, boolean fromClient) throws IOException {
+            int start = buffer.position();
+            int len = channel.read(buffer);
+            if (len < 0) {
+                return true;
+            }
+            if (len > 0) {
+                long now = System.nanoTime();
+                ByteBuffer data = buffer.duplicate();
+                // Cast: ByteBuffer.flip()/position(int) do not exist on Java 8
+                ((Buffer) data).flip();
+                ((Buffer) data).position(start);
+                if (fromClient) {
+                    stats.bytesToServer += len;
+                    stats.protocol.frontend(data);
+                    if (requestStart < 0) {
+                        requestStart = now;
+                    }
+                } else {
+                    stats.bytesToClient += len;
+                    stats.protocol.backend(data);
+                    if (requestStart >= 0) {
+                        long latency = now - requestStart;
+                        stats.roundTrips++;
+                        stats.latencyTotal += latency;
+                        stats.latencyMax = Math.max(stats.latencyMax, latency);
+                        requestStart = -1;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Write buffered data, and only read more when it has all been written
+         */
+        private void flush(ByteBuffer buffer, SocketChannel source, SocketChannel sink, boolean eof,
+                           SelectionKey sourceKey, SelectionKey sinkKey) throws IOException {
+            if (!sink.isConnected() || !sinkKey.isValid() || !sourceKey.isValid()) {
+                return;
+            }
+            if (buffer.position() > 0) {
+                ((Buffer) buffer).flip();
+                sink.write(buffer);
+                buffer.compact();
+            }
+            boolean pending = buffer.position() > 0;
+            int sourceOps = pending || eof || !source.isConnected() ? 0 : SelectionKey.OP_READ;
+            int sinkOps = pending ? SelectionKey.OP_WRITE : 0;
+            sourceKey.interestOps(sourceKey.interestOps() & ~SelectionKey.OP_READ | sourceOps);
+            sinkKey.interestOps(sinkKey.interestOps() & ~(SelectionKey.OP_WRITE | SelectionKey.OP_CONNECT) | sinkOps);
+            if (eof && !pending && !sink.socket().isOutputShutdown()) {
+                sink.shutdownOutput();
+            }
+        }
+
+        private void close() {
+            if (stats.closed == 0) {
+                stats.closed = System.nanoTime();
+            }
+            try {
+                client.close();
+            } catch (IOException ex) {
+                log.debug("Cannot close proxy client connection", ex);
+            }
+            try {
+                server.close();
+            } catch (IOException ex) {
+                log.debug("Cannot close proxy server connection", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package dk.kosmisk.postgresql.maven.plugin;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.plugin.logging.Log;
+
+import static dk.kosmisk.postgresql.maven.plugin.PostgresqlAbstractMojo.WARM_INSTANCES;
+
+/**
+ * A PostgreSQL instance kept running between builds in a long-lived maven
+ * jvm (maven daemon)
+ * <p>
+ * The instance is in use from startup until shutdown, then idle until it is
+ * either reused by a build with the same fingerprint, or evicted.
+ *
+ * @author Source (source (at) kosmisk.dk)
+ */
+class WarmInstance {
+
+    private static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "postgresql-warm-evictor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            // Instances in use are stopped by the startup hook
+            WARM_INSTANCES.values().stream()
+                    .filter(WarmInstance::isIdle)
+                    .forEach(WarmInstance::stop);
+        }));
+    }
+
+    private final String name;
+    private final String key;
+    private final String fingerprint;
+    private final int port;
+    private final Path dataPath;
+    private final ProcessBuilder stopCommand;
+    private final Log log;
+    private ScheduledFuture<?> eviction;
+    private boolean stopped;
+
+    WarmInstance(String key, String name, String fingerprint, int port, Path dataPath, ProcessBuilder stopCommand, Log log) {
+        this.key = key;
+        this.name = name;
+        this.fingerprint = fingerprint;
+        this.port = port;
+        this.dataPath = dataPath;
+        this.stopCommand = stopCommand;
+        this.log = log;
+    }
+
+    String getFingerprint() {
+        return fingerprint;
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    ProcessBuilder getStopCommand() {
+        return stopCommand;
+    }
+
+    /**
+     * Take an idle instance into use
+     *
+     * @return false if the instance is in use by another build or has been
+     *         stopped
+     */
+    synchronized boolean acquire() {
+        if (!isIdle()) {
+            return false;
+        }
+        eviction.cancel(false);
+        eviction = null;
+        return true;
+    }
+
+    /**
+     * Is the database server process (still) running
+     *
+     * @return if the postmaster.pid file exists
+     */
+    boolean isRunning() {
+        return dataPath.resolve("postmaster.pid").toFile().exists();
+    }
+
+    /**
+     * Has the instance been stopped (evicted)
+     *
+     * @return if stopped
+     */
+    synchronized boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Mark the instance as idle, and schedule it for eviction
+     *
+     * @param timeout seconds of idle time before the instance is stopped
+     */
+    synchronized void release(long timeout) {
+        if (stopped) {
+            return;
+        }
+        eviction = EVICTOR.schedule(this::evict, timeout, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Is the instance running and not in use by a build
+     *
+     * @return if the instance is scheduled for eviction
+     */
+    synchronized boolean isIdle() {
+        return eviction != null;
+    }
+
+    private synchronized void evict() {
+        if (eviction == null) {
+            return; // Has been acquired in the meantime
+        }
+        WARM_INSTANCES.remove(key, this);
+        log.info("Evicting idle database: " + name);
+        stop();
+    }
+
+    /**
+     * Stop the database server, and wait for it to complete
+     */
+    synchronized void stop() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        if (eviction != null) {
+            eviction.cancel(false);
+            eviction = null;
+        }
+        try {
+            stopCommand.start()
+                    .waitFor();
+        } catch (IOException ex) {
+            log.error("Cannot stop database: " + name, ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            log.error("Cannot stop database: " + name, ex);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package dk.kosmisk.postgresql.maven.plugin;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Source (source (at) kosmisk.dk)
+ */
+public class BenchmarkResultTest {
+
+    @Test
+    public void testParse() throws Exception {
+        URL resource = BenchmarkResultTest.class.getClassLoader().getResource("pgbench");
+        File dir = new File(resource.toURI());
+        String summary = FileUtils.readFileToString(new File(dir, "summary.out"), StandardCharsets.UTF_8);
+        List<File> logFiles = BenchmarkResult.logFiles(dir);
+        assertEquals(Arrays.asList(new File(dir, "pgbench.1234"), new File(dir, "pgbench.1234.1")), logFiles);
+        BenchmarkResult result = BenchmarkResult.parse(summary, logFiles);
+
+        assertEquals(796.178344, result.getTps(), 0.000001);
+        assertEquals(10, result.getTransactions());
+        assertEquals(0, result.getFailed());
+        assertEquals(59.0 / 12, result.averageLatency(), 0.000001);
+        assertEquals(1.0, result.latencyPercentile(0), 0.000001);
+        assertEquals(4.0, result.latencyPercentile(50), 0.000001);
+        assertEquals(10.0, result.latencyPercentile(95), 0.000001);
+        assertEquals(10.0, result.latencyPercentile(100), 0.000001);
+        assertTrue(result.toJson("db", "tpcb-like", 2, 1, 10).contains("\"p99\": 10.000"));
+    }
+}
@@ -0,0 +1,95 @@
+package dk.kosmisk.postgresql.maven.plugin;
+
+import java.io.File;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Source (source (at) kosmisk.dk)
+ */
+public class PostgresqlAbstractMojoTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testForMatrixVersion() throws Exception {
+        Mojo mojo = mojo();
+        Mojo v10 = mojo.forMatrixVersion("10");
+        Mojo v11 = mojo.forMatrixVersion("11");
+
+        assertNull(v10.versions);
+        assertFalse(v10.isMatrix());
+        assertNull(v10.port);
+        assertEquals("postgresql.db.10.port", v10.getPropertyName());
+        assertEquals("postgresql.db.11.port", v11.getPropertyName());
+        assertEquals("postgresql.db.10.server.port", v10.getServerPortPropertyName());
+        assertEquals("postgresql.db.10.socket.folder", v10.getSocketFolderPropertyName());
+        assertEquals("postgresql.db.10.socket.url", v10.getSocketUrlPropertyName());
+        assertEquals("db@10", v10.instanceKey());
+        assertEquals("db@11", v11.instanceKey());
+        assertEquals("db-10", v10.instanceName());
+        assertEquals(new File(mojo.folder, "db/db-10").toPath(), v10.databasePath());
+        assertEquals(new File(mojo.folder, "db/db-11").toPath(), v11.databasePath());
+        assertNotEquals(v10.warmKey(), v11.warmKey());
+        assertEquals(new File(mojo.folder, "socket/db-10").toPath(), v10.socketPath());
+        assertEquals(new File(mojo.folder, "binary-10").toPath(), v10.scriptPath());
+
+        // The original is untouched
+        assertEquals(Arrays.asList("10", "11"), mojo.versions);
+        assertEquals(Integer.valueOf(5432), mojo.port);
+        assertEquals("custom.port", mojo.getPropertyName());
+        assertEquals("db", mojo.instanceKey());
+        assertNull(mojo.matrixVersion);
+    }
+
+    @Test
+    public void testForMatrixVersionConfiguredFolders() throws Exception {
+        Mojo mojo = mojo();
+        mojo.databaseFolder = new File(mojo.folder, "data");
+        mojo.unixSocketFolder = new File(mojo.folder, "sockets");
+        Mojo v10 = mojo.forMatrixVersion("10");
+        Mojo v11 = mojo.forMatrixVersion("11");
+
+        assertEquals(new File(mojo.folder, "data-10").toPath(), v10.databasePath());
+        assertEquals(new File(mojo.folder, "data-11").toPath(), v11.databasePath());
+        assertEquals(new File(mojo.folder, "sockets-10").toPath(), v10.socketPath());
+        assertEquals(new File(mojo.folder, "sockets-11").toPath(), v11.socketPath());
+        assertEquals(new File(mojo.folder, "data").toPath(), mojo.databasePath());
+    }
+
+    @Test
+    public void testSocketJdbcUrl() throws Exception {
+        String url = PostgresqlAbstractMojo.socketJdbcUrl(Paths.get("/tmp/my sockets"), 15432, "my db&x");
+        assertEquals("jdbc:postgresql://localhost:15432/my+db%26x" +
+                     "?socketFactory=org.newsclub.net.unix.AFUNIXSocketFactory%24FactoryArg" +
+                     "&socketFactoryArg=%2Ftmp%2Fmy+sockets%2F.s.PGSQL.15432", url);
+        String socketFile = URLDecoder.decode(url.substring(url.indexOf("&socketFactoryArg=") + 18), StandardCharsets.UTF_8.name());
+        assertEquals(Paths.get("/tmp/my sockets", ".s.PGSQL.15432").toString(), socketFile);
+    }
+
+    private Mojo mojo() throws Exception {
+        Mojo mojo = new Mojo();
+        mojo.name = "db";
+        mojo.port = 5432;
+        mojo.portProperty = "custom.port";
+        mojo.folder = folder.getRoot().getCanonicalFile();
+        mojo.versions = Arrays.asList("10", "11");
+        return mojo;
+    }
+
+    private static class Mojo extends PostgresqlAbstractMojo {
+
+        @Override
+        public void execute() {
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package dk.kosmisk.postgresql.maven.plugin;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Source (source (at) kosmisk.dk)
+ */
+public class PostgresqlStartupMojoPrewarmTest {
+
+    @Test
+    public void testBlockRanges() throws Exception {
+        String sql = PostgresqlStartupMojo.prewarmBlocksSql(Arrays.asList(
+                "<<8>>",
+                "5,1663,16384,0,3",
+                "5,1663,16384,0,0",
+                "5,1663,16384,0,1",
+                "5,1663,16384,1,0",
+                "5,1663,16384,2,0",
+                "5,1663,16390,0,7",
+                "not,a,block,list,line",
+                "5,1663,16384,0"));
+        assertTrue(sql, sql.contains("(VALUES (1663, 16384, 0, 0, 1), (1663, 16384, 0, 3, 3), " +
+                                     "(1663, 16384, 1, 0, 0), (1663, 16384, 2, 0, 0), " +
+                                     "(1663, 16390, 0, 7, 7))"));
+        assertTrue(sql, sql.contains("(ARRAY['main', 'fsm', 'vm', 'init'])[fork + 1]"));
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertEquals("SELECT 0;\n", PostgresqlStartupMojo.prewarmBlocksSql(Collections.emptyList()));
+        assertEquals("SELECT 0;\n", PostgresqlStartupMojo.prewarmBlocksSql(Collections.singletonList("<<0>>")));
+    }
+}
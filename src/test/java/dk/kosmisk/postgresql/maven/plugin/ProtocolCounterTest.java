@@ -0,0 +1,65 @@
+package dk.kosmisk.postgresql.maven.plugin;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Source (source (at) kosmisk.dk)
+ */
+public class ProtocolCounterTest {
+
+    @Test
+    public void testMessagesSplitAcrossChunks() throws Exception {
+        ProtocolCounter counter = new ProtocolCounter();
+        ByteBuffer frontend = ByteBuffer.allocate(1024);
+        frontend.putInt(8).putInt(80877103); // SSLRequest
+        feedInChunks(frontend, counter::frontend);
+        counter.backend(ByteBuffer.wrap(new byte[] {'N'}));
+
+        byte[] startup = "user\0test\0\0".getBytes(StandardCharsets.UTF_8);
+        frontend.putInt(8 + startup.length).putInt(196608).put(startup);
+        byte[] query = "SELECT 1\0".getBytes(StandardCharsets.UTF_8);
+        frontend.put((byte) 'Q').putInt(4 + query.length).put(query);
+        frontend.put((byte) 'Q').putInt(4 + query.length).put(query);
+        frontend.put((byte) 'X').putInt(4);
+        feedInChunks(frontend, counter::frontend);
+
+        ByteBuffer backend = ByteBuffer.allocate(1024);
+        backend.put((byte) 'R').putInt(8).putInt(0);
+        backend.put((byte) 'Z').putInt(5).put((byte) 'I');
+        feedInChunks(backend, counter::backend);
+
+        assertTrue(counter.isParsing());
+        assertEquals(Long.valueOf(1), counter.frontendMessages().get("SSLRequest"));
+        assertEquals(Long.valueOf(1), counter.frontendMessages().get("StartupMessage"));
+        assertEquals(Long.valueOf(2), counter.frontendMessages().get("Q"));
+        assertEquals(Long.valueOf(1), counter.frontendMessages().get("X"));
+        assertEquals(Long.valueOf(1), counter.backendMessages().get("SSL/GSS response N"));
+        assertEquals(Long.valueOf(1), counter.backendMessages().get("R"));
+        assertEquals(Long.valueOf(1), counter.backendMessages().get("Z"));
+    }
+
+    @Test
+    public void testStopsParsingWhenEncrypted() throws Exception {
+        ProtocolCounter counter = new ProtocolCounter();
+        counter.frontend((ByteBuffer) ByteBuffer.allocate(8).putInt(8).putInt(80877103).flip());
+        counter.backend(ByteBuffer.wrap(new byte[] {'S'}));
+        assertFalse(counter.isParsing());
+    }
+
+    private static void feedInChunks(ByteBuffer buffer, Consumer<ByteBuffer> consumer) {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            ByteBuffer chunk = buffer.slice();
+            chunk.limit(Math.min(3, chunk.remaining()));
+            consumer.accept(chunk);
+            buffer.position(buffer.position() + chunk.limit());
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,54 @@
+package dk.kosmisk.postgresql.maven.plugin;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Source (source (at) kosmisk.dk)
+ */
+public class ResourceSamplerTest {
+
+    @Test
+    public void testProcStat() throws Exception {
+        String[] stat = ResourceSampler.procStatFields(
+                "4321 (postgres: user db (x) [local] idle) S 1234 1234 1234 0 -1 4194560 1021 0 0 0 17 5 0 0 20 0 1 0 2000 221609984 4512 18446744073709551615\n");
+        assertEquals("S", stat[0]);
+        assertEquals(1234, ResourceSampler.parentPid(stat));
+        assertEquals(22, ResourceSampler.cpuTicks(stat));
+    }
+
+    @Test
+    public void testProcValue() throws Exception {
+        List<String> status = Arrays.asList("Name:\tpostgres",
+                                            "VmRSS:\t   30000 kB",
+                                            "RssAnon:\t    4000 kB",
+                                            "RssShmem:\t   25000 kB");
+        assertEquals(4000, ResourceSampler.procValue(status, "RssAnon"));
+        assertEquals(25000, ResourceSampler.procValue(status, "RssShmem"));
+        assertEquals(0, ResourceSampler.procValue(status, "Rss"));
+        assertEquals(0, ResourceSampler.procValue(Collections.emptyList(), "RssAnon"));
+        assertEquals(0, ResourceSampler.procValue(Arrays.asList("read_bytes: x"), "read_bytes"));
+    }
+
+    @Test
+    public void testDeltas() throws Exception {
+        Map<Integer, long[]> first = new HashMap<>();
+        first.put(1, new long[] {100, 1000, 10});
+        first.put(2, new long[] {50, 500, 5});
+        assertArrayEquals(new long[] {0, 0, 0}, ResourceSampler.deltas(first, Collections.emptyMap(), true));
+
+        Map<Integer, long[]> second = new HashMap<>();
+        second.put(1, new long[] {110, 1100, 10}); // Running
+        second.put(3, new long[] {7, 70, 1}); // Started, pid 2 has exited
+        assertArrayEquals(new long[] {17, 170, 1}, ResourceSampler.deltas(second, first, false));
+
+        assertArrayEquals(new long[] {0, 0, 0}, ResourceSampler.deltas(Collections.emptyMap(), second, false));
+    }
+}
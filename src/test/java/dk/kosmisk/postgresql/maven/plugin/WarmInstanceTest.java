@@ -0,0 +1,82 @@
+package dk.kosmisk.postgresql.maven.plugin;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static dk.kosmisk.postgresql.maven.plugin.PostgresqlAbstractMojo.WARM_INSTANCES;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Source (source (at) kosmisk.dk)
+ */
+public class WarmInstanceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAcquireInUse() throws Exception {
+        WarmInstance warm = warmInstance("in-use", new File(folder.getRoot(), "stops"));
+        assertFalse(warm.isIdle());
+        assertFalse(warm.acquire());
+        warm.stop();
+    }
+
+    @Test
+    public void testReleaseAndAcquire() throws Exception {
+        File stops = new File(folder.getRoot(), "stops");
+        WarmInstance warm = warmInstance("release", stops);
+        warm.release(1);
+        assertTrue(warm.isIdle());
+        assertTrue(warm.acquire());
+        assertFalse(warm.isIdle());
+        assertFalse(warm.acquire());
+        Thread.sleep(1500); // Eviction would have happened
+        assertFalse(warm.isStopped());
+        assertFalse(stops.exists());
+        warm.stop();
+    }
+
+    @Test
+    public void testStopIsIdempotent() throws Exception {
+        File stops = new File(folder.getRoot(), "stops");
+        WarmInstance warm = warmInstance("stop", stops);
+        warm.stop();
+        warm.stop();
+        warm.release(0);
+        assertTrue(warm.isStopped());
+        assertFalse(warm.isIdle());
+        assertFalse(warm.acquire());
+        assertEquals(1, FileUtils.readLines(stops, StandardCharsets.UTF_8).size());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        File stops = new File(folder.getRoot(), "stops");
+        WarmInstance warm = warmInstance("evict", stops);
+        WARM_INSTANCES.put("evict", warm);
+        warm.release(0);
+        for (int i = 0; i < 100 && !warm.isStopped(); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(warm.isStopped());
+        assertFalse(warm.isIdle());
+        assertFalse(warm.acquire());
+        assertFalse(WARM_INSTANCES.containsKey("evict"));
+        assertEquals(1, FileUtils.readLines(stops, StandardCharsets.UTF_8).size());
+    }
+
+    /**
+     * Instance (in use) with a stop command, that records each stop in a file
+     */
+    private WarmInstance warmInstance(String key, File stops) {
+        ProcessBuilder stopCommand = new ProcessBuilder("sh", "-c", "echo stop >> '" + stops.getAbsolutePath() + "'");
+        return new WarmInstance(key, key, "fingerprint", 5432, folder.getRoot().toPath(), stopCommand, new SystemStreamLog());
+    }
+}